@@ -13,10 +13,10 @@ import java.util.List;
 import java.util.Set;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Table.Cell;
@@ -25,17 +25,17 @@ import com.google.common.graph.ImmutableUndirectedGraph;
 import com.google.common.graph.UndirectedGraph;
 
 public class Board {
-  private static ImmutableUndirectedGraph<Tile, String> buildGraph(
+  private static ImmutableUndirectedGraph<Tile, String> buildGraph(BoardShape shape,
       ImmutableTable<Integer, Integer, Tile> layout) {
-    UndirectedGraph<Tile, String> tmpGraph = Graphs.createUndirected(
-        Graphs.config().expectedNodeCount(16).expectedEdgeCount(24).noSelfLoops());
-    for (int row = 0; row < 4; row++) {
-      for (int col = 0; col < 4; col++) {
-        if (row < 3) {
+    UndirectedGraph<Tile, String> tmpGraph = Graphs.createUndirected(Graphs.config()
+        .expectedNodeCount(shape.cells).expectedEdgeCount(shape.edges()).noSelfLoops());
+    for (int row = 0; row < shape.rows; row++) {
+      for (int col = 0; col < shape.columns; col++) {
+        if (row < shape.rows - 1) {
           tmpGraph.addEdge(String.format("%d,%d,down", row, col), layout.get(row, col),
               layout.get(row + 1, col));
         }
-        if (col < 3) {
+        if (col < shape.columns - 1) {
           tmpGraph.addEdge(String.format("%d,%d,right", row, col), layout.get(row, col),
               layout.get(row, col + 1));
         }
@@ -44,12 +44,13 @@ public class Board {
     return ImmutableUndirectedGraph.copyOf(tmpGraph);
   }
 
-  private static ImmutableTable<Integer, Integer, Tile> buildTable(List<Tile> tiles) {
+  private static ImmutableTable<Integer, Integer, Tile> buildTable(BoardShape shape,
+      List<Tile> tiles) {
     int i = 0;
     ImmutableTable.Builder<Integer, Integer, Tile> builder = ImmutableTable.builder();
     for (Tile tile : tiles) {
-      int row = i / 4;
-      int column = i % 4;
+      int row = i / shape.columns;
+      int column = i % shape.columns;
       builder.put(row, column, tile);
       i++;
     }
@@ -62,12 +63,20 @@ public class Board {
 
   final int factoryRanking;
 
+  final BoardShape shape;
+
   Board(int factoryRanking, List<Tile> tiles) {
+    this(BoardShape.STANDARD, factoryRanking, tiles);
+  }
+
+  Board(BoardShape shape, int factoryRanking, List<Tile> tiles) {
     Preconditions.checkArgument(ImmutableSet.of(1,2,3).contains(factoryRanking));
-    Preconditions.checkArgument(tiles.size() == 16, "There must be exactly 16 tiles!");
+    Preconditions.checkArgument(tiles.size() == shape.cells, "There must be exactly %s tiles!",
+        shape.cells);
+    this.shape = shape;
     this.factoryRanking = factoryRanking;
-    layout = buildTable(tiles);
-    graph = buildGraph(layout);
+    layout = buildTable(shape, tiles);
+    graph = buildGraph(shape, layout);
   }
 
   private String center(String toCenter) {
@@ -100,9 +109,9 @@ public class Board {
   }
 
   private String getRowAsString(int row) {
-    return String.format("|%-12s|%-12s|%-12s|%-12s|", center(layout.get(row, 0).toString()),
-        center(layout.get(row, 1).toString()), center(layout.get(row, 2).toString()),
-        center(layout.get(row, 3).toString()));
+    return layout.row(row).values().stream()
+        .map(tile -> String.format("%-12s", center(tile.toString())))
+        .collect(joining("|", "|", "|"));
   }
 
   private Long getScoreForTaverns(Long numSetsOfLargestSize, int numElemsInEachSet) {
@@ -367,18 +376,23 @@ public class Board {
 
   @Override
   public String toString() {
-    String topRow = "┌---------------------------------------------------┐";
-    String bottomRow = "└---------------------------------------------------┘";
-    String middleSeparators = "|------------|------------|------------|------------|";
-    String space = "|            |            |            |            |";
-    String row0 = getRowAsString(0);
-    String row1 = getRowAsString(1);
-    String row2 = getRowAsString(2);
-    String row3 = getRowAsString(3);
+    String dashes = Strings.repeat("-", 13 * shape.columns - 1);
+    String topRow = "┌" + dashes + "┐";
+    String bottomRow = "└" + dashes + "┘";
+    String middleSeparators = Strings.repeat("|------------", shape.columns) + "|";
+    String space = Strings.repeat("|            ", shape.columns) + "|";
+    List<String> lines = new ArrayList<>();
+    lines.add(topRow);
+    for (int row = 0; row < shape.rows; row++) {
+      if (row > 0) {
+        lines.add(middleSeparators);
+      }
+      lines.add(space);
+      lines.add(getRowAsString(row));
+      lines.add(space);
+    }
+    lines.add(bottomRow);
     return "#" + factoryRanking + " in factories; Score: " + getScore() + "\n"
-        + Stream
-            .of(topRow, space, row0, space, middleSeparators, space, row1, space, middleSeparators,
-                space, row2, space, middleSeparators, space, row3, space, bottomRow)
-            .collect(joining("\n"));
+        + lines.stream().collect(joining("\n"));
   }
 }
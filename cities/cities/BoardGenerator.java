@@ -1,12 +1,10 @@
 package cities;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.TreeMap;
@@ -19,7 +17,7 @@ import com.google.common.collect.ImmutableList;
 import cities.Tile.Type;
 
 public class BoardGenerator {
-  static final long MAX_LONG_EXCLUSIVE = (long) (3 * Math.pow(9, 16));
+  static final long MAX_LONG_EXCLUSIVE = BoardShape.STANDARD.boardCount();
   private static final AtomicLong boardNumber = new AtomicLong();
 
   Stream<Board> randomBoards() {
@@ -27,45 +25,91 @@ public class BoardGenerator {
         .mapToObj(BoardGenerator::generateBoardFromLong);
   }
 
+  /**
+   * Every board exactly once, starting at {@code startingBoard} and wrapping around to board 0
+   * after the last one.
+   */
   public static Stream<Board> sequentialBoards(long startingBoard) {
-    return LongStream.iterate(startingBoard, n -> n + 1 % MAX_LONG_EXCLUSIVE)
+    return LongStream
+        .concat(boardIds(startingBoard, MAX_LONG_EXCLUSIVE), boardIds(0, startingBoard))
         .mapToObj(BoardGenerator::generateBoardFromLong);
   }
 
+  /** The boards with ids in {@code [fromInclusive, toExclusive)}, in id order. */
+  public static Stream<Board> boards(long fromInclusive, long toExclusive) {
+    return boardIds(fromInclusive, toExclusive).mapToObj(BoardGenerator::generateBoardFromLong);
+  }
+
+  /** The ids {@code [fromInclusive, toExclusive)} as a sized stream, in id order. */
+  public static LongStream boardIds(long fromInclusive, long toExclusive) {
+    return LongStream.range(fromInclusive, toExclusive);
+  }
+
+  /** The boards with ids in {@code [fromInclusive, toExclusive)} in {@link #packBoard} form. */
+  public static LongStream packedBoards(long fromInclusive, long toExclusive) {
+    return boardIds(fromInclusive, toExclusive).map(BoardGenerator::packBoard);
+  }
+
+  /**
+   * Packs the tiles of a board id into a long, 4 bits per tile: the {@link Type} ordinal of the
+   * tile in row-major cell {@code i} is stored in bits {@code 4 * (15 - i)} and up, so the packed
+   * board reads left to right in hex. The factory ranking is not included; it is
+   * {@code lng % 3 + 1}.
+   */
+  public static long packBoard(long lng) {
+    long digits = lng / 3;
+    long packed = 0;
+    for (int shift = 0; shift < 64; shift += 4) {
+      packed |= (digits % 9) << shift;
+      digits /= 9;
+    }
+    return packed;
+  }
+
 
   public static Board generateBoardFromLong(long lng) {
-    List<Type> types = ImmutableList.copyOf(Type.values());
-    List<Tile> tileList = new ArrayList<>(16);
-    int rank = (int) (lng % 3) + 1;
-    lng = lng / 3;
-    while (tileList.size() < 16) {
-      tileList.add(new Tile(types.get((int) (lng % 9))));
-      lng = lng / 9;
+    return generateBoardFromLong(BoardShape.STANDARD, lng);
+  }
+
+  /** The board of the given shape with id {@code lng}; see {@link BoardShape} for the codec. */
+  public static Board generateBoardFromLong(BoardShape shape, long lng) {
+    int[] types = new int[shape.cells];
+    shape.decode(lng, types);
+    return generateBoard(shape, types, BoardShape.factoryRanking(lng));
+  }
+
+  /** The board holding the {@link Type} with ordinal {@code types[i]} in row-major cell i. */
+  public static Board generateBoard(BoardShape shape, int[] types, int factoryRanking) {
+    Type[] values = Type.values();
+    List<Tile> tileList = new ArrayList<>(shape.cells);
+    for (int cell = 0; cell < shape.cells; cell++) {
+      tileList.add(new Tile(values[types[cell]]));
     }
-    Collections.reverse(tileList);
-    return new Board(rank, ImmutableList.copyOf(tileList));
+    return new Board(shape, factoryRanking, ImmutableList.copyOf(tileList));
   }
 
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException {
     Map<Integer, Long> scores = new TreeMap<>();
-    Set<Long> highestScoringBoards = new HashSet<>();
-    int bestScore = 0;
-    startTimer();
-    while (boardNumber.get() < MAX_LONG_EXCLUSIVE) {
-      Board newBoard = generateBoardFromLong(boardNumber.get());
-      int newBoardScore = newBoard.getScore();
-      long previousCount = scores.getOrDefault(newBoardScore, 0L);
-      scores.put(newBoardScore, previousCount + 1);
-      if (newBoardScore >= bestScore) {
-        if (newBoardScore > bestScore) {
-          highestScoringBoards.clear();
+    // Boards are visited in id order, as the store requires.
+    try (BoardIdStore highestScoringBoards = new BoardIdStore()) {
+      int bestScore = 0;
+      startTimer();
+      while (boardNumber.get() < MAX_LONG_EXCLUSIVE) {
+        Board newBoard = generateBoardFromLong(boardNumber.get());
+        int newBoardScore = newBoard.getScore();
+        long previousCount = scores.getOrDefault(newBoardScore, 0L);
+        scores.put(newBoardScore, previousCount + 1);
+        if (newBoardScore >= bestScore) {
+          if (newBoardScore > bestScore) {
+            highestScoringBoards.clear();
+            bestScore = newBoardScore;
+          }
+          highestScoringBoards.add(boardNumber.get());
           bestScore = newBoardScore;
+          System.err.println(newBoard);
         }
-        highestScoringBoards.add(boardNumber.get());
-        bestScore = newBoardScore;
-        System.err.println(newBoard);
+        boardNumber.incrementAndGet();
       }
-      boardNumber.incrementAndGet();
     }
   }
 
@@ -4,8 +4,12 @@ import static cities.Tile.Type.FACTORY;
 import static cities.Tile.Type.HOUSE;
 import static cities.Tile.Type.TAVERN_MUSIC;
 import static com.google.common.truth.Truth.assertThat;
+import static java.util.stream.Collectors.toList;
 
+import java.util.List;
+import java.util.Spliterator;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import org.junit.Test;
 
@@ -51,4 +55,55 @@ public class BoardGeneratorTests {
         .inOrder();
     assertThat(boardMAX.factoryRanking).isEqualTo(3);
   }
+
+  @Test
+  public void sequentialBoardsAdvanceByOne() {
+    assertThat(BoardGenerator.sequentialBoards(2L).limit(2).map(board -> board.factoryRanking)
+        .collect(Collectors.toList())).containsExactly(3, 1).inOrder();
+  }
+
+  @Test
+  public void sequentialBoardsWrapAround() {
+    Board board = BoardGenerator.sequentialBoards(BoardGenerator.MAX_LONG_EXCLUSIVE - 1).skip(1)
+        .findFirst().get();
+    assertThat(board.graph.nodes().stream().allMatch(Tile::isFactory)).isTrue();
+    assertThat(board.factoryRanking).isEqualTo(1);
+  }
+
+  @Test
+  public void boardIdsAreSized() {
+    Spliterator.OfLong ids = BoardGenerator.boardIds(10, 1_000_010).spliterator();
+    assertThat(ids.getExactSizeIfKnown()).isEqualTo(1_000_000L);
+    assertThat(ids.hasCharacteristics(Spliterator.SUBSIZED)).isTrue();
+  }
+
+  @Test
+  public void parallelBoardIdsCoverRangeOnce() {
+    assertThat(BoardGenerator.boardIds(5, 100_005).parallel().sum())
+        .isEqualTo(LongStream.range(5, 100_005).sum());
+    assertThat(BoardGenerator.boardIds(5, 100_005).parallel().count()).isEqualTo(100_000L);
+  }
+
+  @Test
+  public void packBoard() {
+    assertThat(BoardGenerator.packBoard(0L)).isEqualTo(0L);
+    assertThat(BoardGenerator.packBoard(3L)).isEqualTo(0x1L);
+    assertThat(BoardGenerator.packBoard((long) (3 * Math.pow(9, 15))))
+        .isEqualTo(0x1000000000000000L);
+    assertThat(BoardGenerator.packBoard(BoardGenerator.MAX_LONG_EXCLUSIVE - 1))
+        .isEqualTo(0x8888888888888888L);
+  }
+
+  @Test
+  public void packedBoardsMatchBoards() {
+    long[] packed = BoardGenerator.packedBoards(123_456_789, 123_456_889).toArray();
+    List<Board> boards = BoardGenerator.boards(123_456_789, 123_456_889).collect(toList());
+    for (int i = 0; i < packed.length; i++) {
+      long tiles = 0;
+      for (Tile tile : boards.get(i).graph.nodes()) {
+        tiles = (tiles << 4) | tile.getType().ordinal();
+      }
+      assertThat(tiles).isEqualTo(packed[i]);
+    }
+  }
 }
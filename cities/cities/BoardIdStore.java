@@ -0,0 +1,395 @@
+package cities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A sorted set of board ids kept off the heap. Ids must be added in increasing order, which is the
+ * order boards are enumerated in; stores filled by parallel workers over separate ranges are
+ * combined with {@link #merge}.
+ * <p>
+ * Ids are grouped into blocks of up to {@value #BLOCK_IDS}. A block stores its first id in 8 bytes,
+ * its size less one in a byte, and the gap to each following id as a varint, so runs of close ids
+ * cost one or two bytes each. Blocks live in fixed-size segments of direct memory until the store
+ * reaches its memory cap; later segments are mapped from a temporary file, which is deleted by
+ * {@link #close}. Only the first id and position of each block are kept on the heap.
+ * <p>
+ * Not thread-safe.
+ */
+final class BoardIdStore implements Closeable {
+  static final int BLOCK_IDS = 128;
+  static final long DEFAULT_MEMORY_CAP = 64 << 20;
+  private static final int DEFAULT_SEGMENT_BYTES = 1 << 20;
+  private static final int MAX_BLOCK_BYTES = 8 + 1 + (BLOCK_IDS - 1) * 10;
+
+  private final long memoryCap;
+  private final Path spillDirectory;
+  private final int segmentBytes;
+  private final List<ByteBuffer> segments = new ArrayList<>();
+  private int directSegments;
+  private FileChannel spillFile;
+  private Path spillPath;
+
+  private long[] blockFirstIds = new long[16];
+  private long[] blockPositions = new long[16];
+  private int blocks;
+  /** Where the next block will be written: segment index times segment size plus offset. */
+  private long end;
+
+  private final long[] pending = new long[BLOCK_IDS];
+  private int pendingCount;
+  private final ByteBuffer scratch = ByteBuffer.allocate(MAX_BLOCK_BYTES);
+  private long size;
+  private long last = -1;
+
+  /** A store capped at {@link #DEFAULT_MEMORY_CAP} bytes of direct memory. */
+  BoardIdStore() {
+    this(DEFAULT_MEMORY_CAP, Paths.get(System.getProperty("java.io.tmpdir")));
+  }
+
+  /**
+   * A store that uses at most {@code memoryCap} bytes of direct memory before spilling to a file
+   * in {@code spillDirectory}.
+   */
+  BoardIdStore(long memoryCap, Path spillDirectory) {
+    this(memoryCap, spillDirectory, DEFAULT_SEGMENT_BYTES);
+  }
+
+  BoardIdStore(long memoryCap, Path spillDirectory, int segmentBytes) {
+    Preconditions.checkArgument(memoryCap >= 0, "Invalid memory cap %s", memoryCap);
+    Preconditions.checkArgument(segmentBytes >= MAX_BLOCK_BYTES, "Segments must hold a block");
+    this.memoryCap = memoryCap;
+    this.spillDirectory = spillDirectory;
+    this.segmentBytes = segmentBytes;
+  }
+
+  /** Adds {@code id}, which must be greater than every id already in the store. */
+  void add(long id) {
+    Preconditions.checkArgument(id > last, "Ids must be added in increasing order: %s after %s",
+        id, last);
+    pending[pendingCount++] = id;
+    last = id;
+    size++;
+    if (pendingCount == BLOCK_IDS) {
+      flush();
+    }
+  }
+
+  long size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** The bytes of direct or mapped memory holding blocks, excluding the block being filled. */
+  long storedBytes() {
+    return end;
+  }
+
+  boolean isSpilled() {
+    return spillFile != null;
+  }
+
+  boolean contains(long id) {
+    if (id < 0 || id > last) {
+      return false;
+    }
+    if (pendingCount > 0 && id >= pending[0]) {
+      return Arrays.binarySearch(pending, 0, pendingCount, id) >= 0;
+    }
+    int block = Arrays.binarySearch(blockFirstIds, 0, blocks, id);
+    if (block >= 0) {
+      return true;
+    }
+    block = -block - 2;
+    if (block < 0) {
+      return false;
+    }
+    BlockReader reader = new BlockReader(block);
+    while (reader.hasNext()) {
+      long next = reader.next();
+      if (next >= id) {
+        return next == id;
+      }
+    }
+    return false;
+  }
+
+  /** The id at {@code index} in increasing order; decodes at most one block. */
+  long get(long index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " of " + size + " ids");
+    }
+    // Every stored block is full, so the index alone locates the block.
+    long block = index / BLOCK_IDS;
+    if (block == blocks) {
+      return pending[(int) (index % BLOCK_IDS)];
+    }
+    BlockReader reader = new BlockReader((int) block);
+    long id = reader.next();
+    for (long skip = index % BLOCK_IDS; skip > 0; skip--) {
+      id = reader.next();
+    }
+    return id;
+  }
+
+  /** The number of stored ids less than {@code id}. */
+  long rank(long id) {
+    if (id > last) {
+      return size;
+    }
+    if (pendingCount > 0 && id > pending[0]) {
+      int index = Arrays.binarySearch(pending, 0, pendingCount, id);
+      return (long) blocks * BLOCK_IDS + (index >= 0 ? index : -index - 1);
+    }
+    int block = Arrays.binarySearch(blockFirstIds, 0, blocks, id);
+    if (block >= 0) {
+      return (long) block * BLOCK_IDS;
+    }
+    block = -block - 2;
+    if (block < 0) {
+      return 0;
+    }
+    long rank = (long) block * BLOCK_IDS;
+    BlockReader reader = new BlockReader(block);
+    while (reader.hasNext() && reader.next() < id) {
+      rank++;
+    }
+    return rank;
+  }
+
+  /** Removes every id, keeping the memory already allocated for reuse. */
+  void clear() {
+    blocks = 0;
+    end = 0;
+    pendingCount = 0;
+    size = 0;
+    last = -1;
+  }
+
+  /** The ids in increasing order. */
+  PrimitiveIterator.OfLong iterator() {
+    return new PrimitiveIterator.OfLong() {
+      private int block;
+      private BlockReader reader;
+      private int pendingIndex;
+
+      @Override
+      public boolean hasNext() {
+        while (reader == null || !reader.hasNext()) {
+          if (block == blocks) {
+            return pendingIndex < pendingCount;
+          }
+          reader = new BlockReader(block++);
+        }
+        return true;
+      }
+
+      @Override
+      public long nextLong() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return reader != null && reader.hasNext() ? reader.next() : pending[pendingIndex++];
+      }
+    };
+  }
+
+  LongStream ids() {
+    return StreamSupport.longStream(Spliterators.spliterator(iterator(), size,
+        Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.SORTED | Spliterator.NONNULL),
+        false);
+  }
+
+  /**
+   * A new store holding every id in {@code stores}, which may overlap, using the memory settings
+   * of the first. The given stores are left unchanged.
+   */
+  static BoardIdStore merge(List<BoardIdStore> stores) {
+    Preconditions.checkArgument(!stores.isEmpty(), "Nothing to merge");
+    BoardIdStore first = stores.get(0);
+    BoardIdStore merged = new BoardIdStore(first.memoryCap, first.spillDirectory,
+        first.segmentBytes);
+    PriorityQueue<Head> heads = new PriorityQueue<>(Comparator.comparingLong(head -> head.id));
+    for (BoardIdStore store : stores) {
+      PrimitiveIterator.OfLong ids = store.iterator();
+      if (ids.hasNext()) {
+        heads.add(new Head(ids));
+      }
+    }
+    while (!heads.isEmpty()) {
+      Head head = heads.poll();
+      if (head.id > merged.last) {
+        merged.add(head.id);
+      }
+      if (head.ids.hasNext()) {
+        head.id = head.ids.nextLong();
+        heads.add(head);
+      }
+    }
+    return merged;
+  }
+
+  private static final class Head {
+    final PrimitiveIterator.OfLong ids;
+    long id;
+
+    Head(PrimitiveIterator.OfLong ids) {
+      this.ids = ids;
+      id = ids.nextLong();
+    }
+  }
+
+  /**
+   * Unmaps and deletes the spill file, if any. Neither the store nor its iterators and streams may
+   * be used afterwards.
+   */
+  @Override
+  public void close() throws IOException {
+    // Windows refuses to delete a file that is still mapped, and mappings otherwise last until
+    // their buffers are garbage collected.
+    for (ByteBuffer segment : segments.subList(directSegments, segments.size())) {
+      unmap(segment);
+    }
+    segments.clear();
+    directSegments = 0;
+    if (spillFile != null) {
+      spillFile.close();
+      spillFile = null;
+      try {
+        Files.deleteIfExists(spillPath);
+      } catch (IOException e) {
+        // The mapping could not be dropped here; try again when the JVM exits.
+        spillPath.toFile().deleteOnExit();
+      }
+    }
+  }
+
+  /** Releases a mapped buffer now, where the JVM allows it. */
+  private static void unmap(ByteBuffer segment) {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field unsafe = unsafeClass.getDeclaredField("theUnsafe");
+      unsafe.setAccessible(true);
+      unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(unsafe.get(null), segment);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Before Java 9, or without access to Unsafe: leave the buffer to the garbage collector.
+    }
+  }
+
+  private void flush() {
+    scratch.clear();
+    scratch.putLong(pending[0]);
+    scratch.put((byte) (pendingCount - 1));
+    for (int i = 1; i < pendingCount; i++) {
+      long delta = pending[i] - pending[i - 1];
+      while ((delta & ~0x7FL) != 0) {
+        scratch.put((byte) (delta | 0x80));
+        delta >>>= 7;
+      }
+      scratch.put((byte) delta);
+    }
+    scratch.flip();
+
+    int offset = (int) (end % segmentBytes);
+    if (offset + scratch.remaining() > segmentBytes) {
+      end += segmentBytes - offset;
+      offset = 0;
+    }
+    int segment = (int) (end / segmentBytes);
+    if (segment == segments.size()) {
+      segments.add(allocateSegment());
+    }
+    ByteBuffer target = segments.get(segment).duplicate();
+    target.position(offset);
+    target.put(scratch);
+
+    if (blocks == blockFirstIds.length) {
+      blockFirstIds = Arrays.copyOf(blockFirstIds, 2 * blocks);
+      blockPositions = Arrays.copyOf(blockPositions, 2 * blocks);
+    }
+    blockFirstIds[blocks] = pending[0];
+    blockPositions[blocks] = end;
+    blocks++;
+    end += target.position() - offset;
+    pendingCount = 0;
+  }
+
+  private ByteBuffer allocateSegment() {
+    if ((long) (directSegments + 1) * segmentBytes <= memoryCap) {
+      directSegments++;
+      return ByteBuffer.allocateDirect(segmentBytes);
+    }
+    try {
+      if (spillFile == null) {
+        spillPath = Files.createTempFile(spillDirectory, "board-ids", ".bin");
+        spillFile = FileChannel.open(spillPath, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+      }
+      long fileOffset = (long) (segments.size() - directSegments) * segmentBytes;
+      return spillFile.map(MapMode.READ_WRITE, fileOffset, segmentBytes);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Decodes one stored block. */
+  private final class BlockReader {
+    private final ByteBuffer buffer;
+    private int remaining;
+    private long previous = -1;
+
+    BlockReader(int block) {
+      long position = blockPositions[block];
+      buffer = segments.get((int) (position / segmentBytes)).duplicate();
+      buffer.position((int) (position % segmentBytes) + 8);
+      remaining = (buffer.get() & 0xFF) + 1;
+    }
+
+    boolean hasNext() {
+      return remaining > 0;
+    }
+
+    long next() {
+      remaining--;
+      if (previous < 0) {
+        previous = buffer.getLong(buffer.position() - 9);
+        return previous;
+      }
+      long delta = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = buffer.get();
+        delta |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      previous += delta;
+      return previous;
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package cities;
+
+import static com.google.common.truth.Truth.assert_;
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+public class BoardIdStoreTests {
+
+  private static long[] increasingIds(long seed, int count, long maxGap) {
+    SplittableRandom random = new SplittableRandom(seed);
+    long[] ids = new long[count];
+    long id = random.nextLong(1_000);
+    for (int i = 0; i < count; i++) {
+      ids[i] = id;
+      id += 1 + random.nextLong(maxGap);
+    }
+    return ids;
+  }
+
+  @Test
+  public void iteratesInOrder() throws IOException {
+    long[] ids = increasingIds(1, 10_000, 1L << 40);
+    try (BoardIdStore store = new BoardIdStore()) {
+      for (long id : ids) {
+        store.add(id);
+      }
+      assertThat(store.size()).isEqualTo(10_000L);
+      assertThat(store.ids().toArray()).isEqualTo(ids);
+    }
+  }
+
+  @Test
+  public void containsOnlyAddedIds() throws IOException {
+    long[] ids = increasingIds(2, 5_000, 50);
+    try (BoardIdStore store = new BoardIdStore()) {
+      for (long id : ids) {
+        store.add(id);
+      }
+      for (long id = 0; id <= ids[ids.length - 1] + 1; id++) {
+        assertThat(store.contains(id)).isEqualTo(Arrays.binarySearch(ids, id) >= 0);
+      }
+    }
+  }
+
+  @Test
+  public void indexesAndRanksMatchArray() throws IOException {
+    long[] ids = increasingIds(7, 1_000, 20);
+    try (BoardIdStore store = new BoardIdStore()) {
+      for (long id : ids) {
+        store.add(id);
+      }
+      for (int i = 0; i < ids.length; i++) {
+        assertThat(store.get(i)).isEqualTo(ids[i]);
+      }
+      for (long id = 0; id <= ids[ids.length - 1] + 1; id++) {
+        int index = Arrays.binarySearch(ids, id);
+        assertThat(store.rank(id)).isEqualTo((long) (index >= 0 ? index : -index - 1));
+      }
+      try {
+        store.get(ids.length);
+        assert_().fail();
+      } catch (IndexOutOfBoundsException expected) {
+      }
+    }
+  }
+
+  @Test
+  public void closeIdsTakeAboutAByteEach() throws IOException {
+    try (BoardIdStore store = new BoardIdStore()) {
+      for (long id = 0; id < 1_000_000; id += 3) {
+        store.add(id);
+      }
+      assertThat(store.storedBytes()).isLessThan(store.size() * 11 / 10);
+    }
+  }
+
+  @Test
+  public void spillsPastTheMemoryCap() throws IOException {
+    Path directory = Files.createTempDirectory("board-id-store");
+    long[] ids = increasingIds(3, 200_000, 1 << 20);
+    try (BoardIdStore store = new BoardIdStore(8 << 10, directory, 4 << 10)) {
+      for (long id : ids) {
+        store.add(id);
+      }
+      assertThat(store.isSpilled()).isTrue();
+      assertThat(store.ids().toArray()).isEqualTo(ids);
+      assertThat(store.contains(ids[123_456])).isTrue();
+      assertThat(store.contains(ids[123_456] + 1)).isFalse();
+    }
+    try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+      assertThat(files.count()).isEqualTo(0L);
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  public void clearAllowsSmallerIds() throws IOException {
+    try (BoardIdStore store = new BoardIdStore()) {
+      for (long id = 100; id < 1_000; id++) {
+        store.add(id);
+      }
+      store.clear();
+      store.add(5);
+      assertThat(store.ids().toArray()).isEqualTo(new long[] {5});
+      assertThat(store.contains(100)).isFalse();
+    }
+  }
+
+  @Test
+  public void rejectsIdsOutOfOrder() throws IOException {
+    try (BoardIdStore store = new BoardIdStore()) {
+      store.add(10);
+      try {
+        store.add(10);
+        assert_().fail("Expected IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+  }
+
+  @Test
+  public void mergesWorkerStores() throws IOException {
+    long[] ids = increasingIds(4, 30_000, 1_000);
+    List<BoardIdStore> workers = new ArrayList<>();
+    for (int worker = 0; worker < 3; worker++) {
+      workers.add(new BoardIdStore());
+    }
+    for (int i = 0; i < ids.length; i++) {
+      workers.get(i % 3).add(ids[i]);
+    }
+    // Overlapping ids are only kept once.
+    workers.get(0).add(ids[ids.length - 1]);
+    try (BoardIdStore merged = BoardIdStore.merge(workers)) {
+      assertThat(merged.ids().toArray()).isEqualTo(ids);
+    }
+    for (BoardIdStore worker : workers) {
+      worker.close();
+    }
+  }
+}
@@ -0,0 +1,472 @@
+package cities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.google.common.base.Preconditions;
+
+import cities.Tile.Type;
+
+/**
+ * Finds the boards matching cell constraints, tile count bounds and a minimum score without
+ * scanning the whole id space.
+ * <p>
+ * A board id's base-9 digits are its cells in row-major order, so the boards sharing their first
+ * {@code k} cells form one contiguous id range. The query walks those ranges depth first, fixing
+ * one cell at a time, and skips a range as soon as a cell constraint fails, a count bound can no
+ * longer be met, or an upper bound on the score of every board in it falls below the minimum.
+ * Matching ids come back lazily and in increasing order.
+ * <p>
+ * The score bound scores the fixed cells as exactly as their unfixed neighbours allow, then
+ * chooses how many unfixed cells to give each building type to maximise a relaxed score: factories
+ * at their best multiplier, offices by count plus a tavern bonus each, parks and shops at 4 each,
+ * taverns spread over the kinds as evenly as possible, and houses at one point per type present.
+ * The choice is a small dynamic program over the types, tracking how many cells are used and how
+ * many types are present.
+ */
+final class BoardQuery {
+  private static final int ALL_TYPES = (1 << BoardShape.TYPES) - 1;
+  private static final int FACTORY = PackedBoardScorer.FACTORY;
+  private static final int HOUSE = PackedBoardScorer.HOUSE;
+  private static final int OFFICE = PackedBoardScorer.OFFICE;
+  private static final int PARK = PackedBoardScorer.PARK;
+  private static final int SHOP = PackedBoardScorer.SHOP;
+  private static final int FIRST_TAVERN = PackedBoardScorer.FIRST_TAVERN;
+  /** The best park and shop scores of any split of a count of tiles into groups. */
+  private static final int[] PARK_BOUNDS = new int[BoardShape.MAX_CELLS + 1];
+  private static final int[] SHOP_BOUNDS = new int[BoardShape.MAX_CELLS + 1];
+  /** Factories, offices, parks, shops and taverns, each of which adds 1 to every house. */
+  private static final int[] CATEGORY_TYPES = {FACTORY, OFFICE, PARK, SHOP, FIRST_TAVERN};
+  private static final int CATEGORIES = CATEGORY_TYPES.length;
+  private static final int TAVERNS = 0xF << FIRST_TAVERN;
+
+  static {
+    for (int n = 1; n <= BoardShape.MAX_CELLS; n++) {
+      for (int group = 1; group <= n; group++) {
+        PARK_BOUNDS[n] = Math.max(PARK_BOUNDS[n],
+            PackedBoardScorer.scoreParkGroup(group) + PARK_BOUNDS[n - group]);
+        SHOP_BOUNDS[n] = Math.max(SHOP_BOUNDS[n],
+            PackedBoardScorer.scoreStoreGroup(group) + SHOP_BOUNDS[n - group]);
+      }
+    }
+  }
+
+  final BoardShape shape;
+  private final GridScorer scorer;
+  private final int[] allowed;
+  private final int[] countTypes;
+  private final int[] countMins;
+  private final int[] countMaxes;
+  private final int minScore;
+  private final int rankings;
+  private final long maxVisits;
+  private final int multiplier;
+
+  /** For each type, the cells allowed to hold it. */
+  private final int[] allowedCells = new int[BoardShape.TYPES];
+  private final int tavernCells;
+  /** For each type, the cells allowed to hold only that type. */
+  private final int[] forcedCells = new int[BoardShape.TYPES];
+  private final int allForced;
+  /** For each count bound and cell, how many cells from there on could hold a counted type. */
+  private final int[][] countable;
+  /** The count bounds on each category's tiles, then on houses, from bounds on exactly those. */
+  private final int[] categoryMins = new int[CATEGORIES + 1];
+  private final int[] categoryMaxes = new int[CATEGORIES + 1];
+
+  private BoardQuery(Builder builder) {
+    shape = builder.shape;
+    scorer = GridScorer.of(shape);
+    allowed = builder.allowed.clone();
+    int bounds = builder.countTypes.size();
+    countTypes = new int[bounds];
+    countMins = new int[bounds];
+    countMaxes = new int[bounds];
+    for (int i = 0; i < bounds; i++) {
+      countTypes[i] = builder.countTypes.get(i);
+      countMins[i] = builder.countMins.get(i);
+      countMaxes[i] = builder.countMaxes.get(i);
+    }
+    minScore = builder.minScore;
+    rankings = builder.rankings;
+    maxVisits = builder.maxVisits;
+    multiplier = PackedBoardScorer.factoryMultiplier(Integer.numberOfTrailingZeros(rankings));
+
+    int cells = shape.cells;
+    for (int cell = 0; cell < cells; cell++) {
+      for (int type = 0; type < BoardShape.TYPES; type++) {
+        if ((allowed[cell] >>> type & 1) != 0) {
+          allowedCells[type] |= 1 << cell;
+        }
+      }
+    }
+    int forced = 0;
+    for (int cell = 0; cell < cells; cell++) {
+      if (Integer.bitCount(allowed[cell]) == 1) {
+        forcedCells[Integer.numberOfTrailingZeros(allowed[cell])] |= 1 << cell;
+        forced |= 1 << cell;
+      }
+    }
+    allForced = forced;
+    tavernCells = allowedCells[FIRST_TAVERN] | allowedCells[FIRST_TAVERN + 1]
+        | allowedCells[FIRST_TAVERN + 2] | allowedCells[FIRST_TAVERN + 3];
+    Arrays.fill(categoryMaxes, cells);
+    for (int category = 0; category <= CATEGORIES; category++) {
+      int types = category == CATEGORIES ? 1 << HOUSE
+          : CATEGORY_TYPES[category] == FIRST_TAVERN ? TAVERNS : 1 << CATEGORY_TYPES[category];
+      for (int i = 0; i < bounds; i++) {
+        if (countTypes[i] == types) {
+          categoryMins[category] = Math.max(categoryMins[category], countMins[i]);
+          categoryMaxes[category] = Math.min(categoryMaxes[category], countMaxes[i]);
+        }
+      }
+    }
+    countable = new int[bounds][cells + 1];
+    for (int cell = cells - 1; cell >= 0; cell--) {
+      for (int i = 0; i < bounds; i++) {
+        countable[i][cell] =
+            countable[i][cell + 1] + ((allowed[cell] & countTypes[i]) != 0 ? 1 : 0);
+      }
+    }
+  }
+
+  static Builder builder() {
+    return new Builder(BoardShape.STANDARD);
+  }
+
+  static Builder builder(BoardShape shape) {
+    return new Builder(shape);
+  }
+
+  /** The ids of the matching boards, in increasing order. */
+  LongStream ids() {
+    return StreamSupport.longStream(new Search(), false);
+  }
+
+  /** The matching boards, in id order. */
+  Stream<Board> boards() {
+    return ids().mapToObj(id -> BoardGenerator.generateBoardFromLong(shape, id));
+  }
+
+  /**
+   * Scores the groups of the fixed parks or shops in {@code fixedMask} that no unfixed cell in
+   * {@code growable} could join. The tiles of the other groups are left in {@code fixedMask}.
+   */
+  private int closedGroupScore(int[] fixedMask, int growable, boolean parks) {
+    int score = 0;
+    int remaining = fixedMask[0];
+    while (remaining != 0) {
+      int group = Integer.lowestOneBit(remaining);
+      int grown = group;
+      do {
+        group = grown;
+        grown = (group | shape.neighbours(group)) & remaining;
+      } while (grown != group);
+      if ((shape.neighbours(group) & growable) == 0) {
+        score += parks ? scorer.scoreParks(group) : scorer.scoreShops(group);
+        fixedMask[0] &= ~group;
+      }
+      remaining &= ~group;
+    }
+    return score;
+  }
+
+  /** Walks the id space depth first, one cell per level. */
+  private final class Search implements Spliterator.OfLong {
+    private final int cells = shape.cells;
+    private final int[] masks = new int[BoardShape.TYPES];
+    private final int[] types = new int[cells];
+    /** The type to try next in each cell; 0 means the cell is not yet fixed. */
+    private final int[] nextType = new int[cells];
+    /** The base-9 number formed by the fixed cells above each level. */
+    private final long[] prefix = new long[cells + 1];
+    private int depth;
+    private int nextRanking;
+    private long visits;
+    /** The best relaxed score of the unfixed cells by cells used and building types present. */
+    private int[][] best = new int[cells + 1][CATEGORIES + 1];
+    private int[][] next = new int[cells + 1][CATEGORIES + 1];
+    private final int[] gains = new int[cells + 1];
+    private final int[] bounded = new int[BoardShape.TYPES];
+    private final int[] openGroups = new int[1];
+
+    @Override
+    public boolean tryAdvance(LongConsumer action) {
+      while (depth >= 0) {
+        if (depth == cells) {
+          while (nextRanking <= 3) {
+            int ranking = nextRanking++;
+            if ((rankings >>> ranking & 1) != 0 && scorer.score(masks, ranking) >= minScore) {
+              action.accept(3 * prefix[cells] + ranking - 1);
+              return true;
+            }
+          }
+          depth--;
+          continue;
+        }
+        int cell = depth;
+        if (nextType[cell] > 0) {
+          masks[types[cell]] &= ~(1 << cell);
+        }
+        int candidates = allowed[cell] & ~((1 << nextType[cell]) - 1);
+        if (candidates == 0) {
+          nextType[cell] = 0;
+          depth--;
+          continue;
+        }
+        if (++visits > maxVisits) {
+          throw new IllegalStateException("The query tried more than " + maxVisits + " tiles");
+        }
+        int type = Integer.numberOfTrailingZeros(candidates);
+        nextType[cell] = type + 1;
+        types[cell] = type;
+        masks[type] |= 1 << cell;
+        if (feasible(cell + 1)) {
+          prefix[cell + 1] = prefix[cell] * BoardShape.TYPES + type;
+          depth++;
+          nextRanking = 1;
+        }
+      }
+      return false;
+    }
+
+    /** Whether the boards whose first {@code fixed} cells are in {@link #masks} may match. */
+    private boolean feasible(int fixed) {
+      for (int i = 0; i < countTypes.length; i++) {
+        int count = 0;
+        for (int type = 0; type < BoardShape.TYPES; type++) {
+          if ((countTypes[i] >>> type & 1) != 0) {
+            count += Integer.bitCount(masks[type]);
+          }
+        }
+        if (count > countMaxes[i] || count + countable[i][fixed] < countMins[i]) {
+          return false;
+        }
+      }
+      return minScore == Integer.MIN_VALUE || scoreBound(fixed) >= minScore;
+    }
+
+    /** An upper bound on the score of any board whose first {@code fixed} cells are fixed. */
+    int scoreBound(int fixed) {
+      // Cells that can only hold one type are as good as fixed.
+      int free = shape.fullMask & ~((1 << fixed) - 1);
+      for (int type = 0; type < BoardShape.TYPES; type++) {
+        bounded[type] = masks[type] | (forcedCells[type] & free);
+      }
+      free &= ~allForced;
+      int freeCount = Integer.bitCount(free);
+      int factories = bounded[FACTORY];
+      int houses = bounded[HOUSE];
+      int offices = bounded[OFFICE];
+      int taverns = bounded[FIRST_TAVERN] | bounded[FIRST_TAVERN + 1]
+          | bounded[FIRST_TAVERN + 2] | bounded[FIRST_TAVERN + 3];
+      int[] tavernCounts = {Integer.bitCount(bounded[FIRST_TAVERN]),
+          Integer.bitCount(bounded[FIRST_TAVERN + 1]), Integer.bitCount(bounded[FIRST_TAVERN + 2]),
+          Integer.bitCount(bounded[FIRST_TAVERN + 3])};
+      int tavernScore = PackedBoardScorer.scoreTavernCounts(tavernCounts[0], tavernCounts[1],
+          tavernCounts[2], tavernCounts[3]);
+      int officeCount = Integer.bitCount(offices);
+      int nextToFactory = shape.neighbours(factories);
+      openGroups[0] = bounded[PARK];
+      int closedParks = closedGroupScore(openGroups, free & allowedCells[PARK], true);
+      int openParks = Integer.bitCount(openGroups[0]);
+      openGroups[0] = bounded[SHOP];
+      int closedShops = closedGroupScore(openGroups, free & allowedCells[SHOP], false);
+      int openShops = Integer.bitCount(openGroups[0]);
+
+      // Everything the unfixed cells cannot change, or can only lower.
+      int fixedScore = Integer.bitCount(factories) * multiplier
+          + Integer.bitCount(houses & nextToFactory)
+          + PackedBoardScorer.scoreOfficeCount(officeCount)
+          + Integer.bitCount(offices & shape.neighbours(taverns | (free & tavernCells)))
+          + closedParks + closedShops + tavernScore;
+
+      for (int used = 0; used <= freeCount; used++) {
+        Arrays.fill(best[used], Integer.MIN_VALUE);
+      }
+      best[0][0] = 0;
+      for (int category = 0; category < CATEGORIES; category++) {
+        int type = CATEGORY_TYPES[category];
+        int count;
+        int cap;
+        if (type == FIRST_TAVERN) {
+          count = Integer.bitCount(taverns);
+          cap = Integer.bitCount(free & tavernCells);
+          // Each tavern is best added to the kind with the fewest.
+          int[] counts = tavernCounts.clone();
+          gains[0] = 0;
+          for (int n = 1; n <= cap; n++) {
+            int least = 0;
+            for (int kind = 1; kind < counts.length; kind++) {
+              least = counts[kind] < counts[least] ? kind : least;
+            }
+            counts[least]++;
+            gains[n] = PackedBoardScorer.scoreTavernCounts(counts[0], counts[1], counts[2],
+                counts[3]) - tavernScore;
+          }
+        } else {
+          count = Integer.bitCount(bounded[type]);
+          cap = Integer.bitCount(free & allowedCells[type]);
+          for (int n = 0; n <= cap; n++) {
+            gains[n] = type == FACTORY ? n * multiplier
+                : type == OFFICE ? PackedBoardScorer.scoreOfficeCount(officeCount + n)
+                    - PackedBoardScorer.scoreOfficeCount(officeCount) + n
+                : type == PARK ? PARK_BOUNDS[openParks + n]
+                : SHOP_BOUNDS[openShops + n];
+          }
+        }
+        int least = Math.max(0, categoryMins[category] - count);
+        int most = Math.min(cap, categoryMaxes[category] - count);
+        for (int used = 0; used <= freeCount; used++) {
+          Arrays.fill(next[used], Integer.MIN_VALUE);
+        }
+        for (int used = 0; used <= freeCount; used++) {
+          for (int types = 0; types < CATEGORIES; types++) {
+            int score = best[used][types];
+            if (score == Integer.MIN_VALUE) {
+              continue;
+            }
+            for (int n = least; n <= most && used + n <= freeCount; n++) {
+              int typesAfter = types + (count > 0 || n > 0 ? 1 : 0);
+              next[used + n][typesAfter] = Math.max(next[used + n][typesAfter], score + gains[n]);
+            }
+          }
+        }
+        int[][] swap = best;
+        best = next;
+        next = swap;
+      }
+
+      // Houses score 1 next to a factory and otherwise 1 per type present. Cells left over may
+      // hold types that add nothing.
+      int houseCount = Integer.bitCount(houses);
+      int goodHouses = Integer.bitCount(houses & ~nextToFactory);
+      int goodCells = Integer.bitCount(free & allowedCells[HOUSE] & ~nextToFactory);
+      int badCells = Integer.bitCount(free & allowedCells[HOUSE] & nextToFactory);
+      int leastHouses = Math.max(0, categoryMins[CATEGORIES] - houseCount);
+      int mostHouses = Math.min(goodCells + badCells, categoryMaxes[CATEGORIES] - houseCount);
+      int bound = Integer.MIN_VALUE;
+      for (int used = 0; used <= freeCount; used++) {
+        int newHouses = Math.min(mostHouses, freeCount - used);
+        if (newHouses < leastHouses) {
+          continue;
+        }
+        int good = Math.min(goodCells, newHouses);
+        for (int types = 0; types <= CATEGORIES; types++) {
+          if (best[used][types] != Integer.MIN_VALUE) {
+            bound = Math.max(bound,
+                best[used][types] + (goodHouses + good) * types + newHouses - good);
+          }
+        }
+      }
+      if (bound == Integer.MIN_VALUE) {
+        return Integer.MIN_VALUE;
+      }
+      return fixedScore + bound;
+    }
+
+    @Override
+    public Spliterator.OfLong trySplit() {
+      return null;
+    }
+
+    @Override
+    public long estimateSize() {
+      return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+      return ORDERED | DISTINCT | SORTED | NONNULL;
+    }
+
+    @Override
+    public Comparator<? super Long> getComparator() {
+      return null;
+    }
+  }
+
+  /** Collects the constraints of a query; every constraint defaults to matching any board. */
+  static final class Builder {
+    private final BoardShape shape;
+    private final int[] allowed;
+    private final List<Integer> countTypes = new ArrayList<>();
+    private final List<Integer> countMins = new ArrayList<>();
+    private final List<Integer> countMaxes = new ArrayList<>();
+    private int minScore = Integer.MIN_VALUE;
+    private int rankings = 0b1110;
+    private long maxVisits = Long.MAX_VALUE;
+
+    private Builder(BoardShape shape) {
+      Preconditions.checkArgument(shape.hasLongIds(), "%s boards have no ids", shape);
+      this.shape = shape;
+      allowed = new int[shape.cells];
+      Arrays.fill(allowed, ALL_TYPES);
+    }
+
+    /** Restricts the tile at {@code (row, column)} to one of {@code types}. */
+    Builder cell(int row, int column, Type... types) {
+      Preconditions.checkElementIndex(row, shape.rows, "row");
+      Preconditions.checkElementIndex(column, shape.columns, "column");
+      allowed[row * shape.columns + column] &= typeMask(types);
+      return this;
+    }
+
+    /** Requires between {@code min} and {@code max} tiles, inclusive, of any of {@code types}. */
+    Builder count(int min, int max, Type... types) {
+      Preconditions.checkArgument(min <= max, "Invalid count bounds %s to %s", min, max);
+      countTypes.add(typeMask(types));
+      countMins.add(min);
+      countMaxes.add(max);
+      return this;
+    }
+
+    /** Requires a score of at least {@code score}. */
+    Builder minScore(int score) {
+      minScore = score;
+      return this;
+    }
+
+    /**
+     * Makes the search throw an {@link IllegalStateException} once it has tried more than
+     * {@code visits} tiles in a cell, which bounds its running time.
+     */
+    Builder maxVisits(long visits) {
+      Preconditions.checkArgument(visits >= 0, "Invalid visit limit %s", visits);
+      maxVisits = visits;
+      return this;
+    }
+
+    /** Restricts the factory ranking to one of {@code factoryRankings}. */
+    Builder factoryRankings(int... factoryRankings) {
+      int mask = 0;
+      for (int ranking : factoryRankings) {
+        Preconditions.checkArgument(ranking >= 1 && ranking <= 3, "Invalid ranking %s", ranking);
+        mask |= 1 << ranking;
+      }
+      rankings &= mask;
+      return this;
+    }
+
+    BoardQuery build() {
+      Preconditions.checkState(rankings != 0, "No factory ranking is allowed");
+      return new BoardQuery(this);
+    }
+
+    private static int typeMask(Type... types) {
+      Preconditions.checkArgument(types.length > 0, "At least one type is needed");
+      int mask = 0;
+      for (Type type : types) {
+        mask |= 1 << type.ordinal();
+      }
+      return mask;
+    }
+  }
+}
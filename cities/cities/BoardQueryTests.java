@@ -0,0 +1,136 @@
+package cities;
+
+import static cities.Tile.Type.FACTORY;
+import static cities.Tile.Type.HOUSE;
+import static cities.Tile.Type.OFFICE;
+import static cities.Tile.Type.PARK;
+import static cities.Tile.Type.SHOP;
+import static cities.Tile.Type.TAVERN_BED;
+import static cities.Tile.Type.TAVERN_DRINK;
+import static cities.Tile.Type.TAVERN_FOOD;
+import static cities.Tile.Type.TAVERN_MUSIC;
+import static com.google.common.truth.Truth.assert_;
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.function.LongPredicate;
+import java.util.stream.LongStream;
+
+import org.junit.Test;
+
+public class BoardQueryTests {
+  private static final BoardShape SMALL = BoardShape.of(2, 3);
+
+  private static int count(int[] types, Tile.Type... counted) {
+    int count = 0;
+    for (int type : types) {
+      for (Tile.Type countedType : counted) {
+        count += type == countedType.ordinal() ? 1 : 0;
+      }
+    }
+    return count;
+  }
+
+  /** Every board of the small shape that satisfies {@code filter}, found by scanning. */
+  private static long[] scan(LongPredicate filter) {
+    return LongStream.range(0, SMALL.boardCount()).filter(filter).toArray();
+  }
+
+  @Test
+  public void minScoreMatchesScan() {
+    GridScorer scorer = GridScorer.of(SMALL);
+    int[] types = new int[SMALL.cells];
+    int[] masks = new int[BoardShape.TYPES];
+    long[] expected = scan(id -> scorer.scoreId(id, types, masks) >= 24);
+    assertThat(expected.length).isGreaterThan(0);
+    assertThat(BoardQuery.builder(SMALL).minScore(24).build().ids().toArray()).isEqualTo(expected);
+  }
+
+  @Test
+  public void visitLimitStopsTheSearch() {
+    assertThat(BoardQuery.builder(SMALL).minScore(24).maxVisits(1_000_000).build().ids().count())
+        .isGreaterThan(0L);
+    try {
+      BoardQuery.builder(SMALL).minScore(24).maxVisits(1_000).build().ids().count();
+      assert_().fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test
+  public void allConstraintsMatchScan() {
+    GridScorer scorer = GridScorer.of(SMALL);
+    int[] types = new int[SMALL.cells];
+    int[] masks = new int[BoardShape.TYPES];
+    long[] expected = scan(id -> {
+      int score = scorer.scoreId(id, types, masks);
+      return (types[1] == HOUSE.ordinal() || types[1] == PARK.ordinal())
+          && types[5] != FACTORY.ordinal() && count(types, PARK) >= 2
+          && count(types, TAVERN_BED, TAVERN_DRINK, TAVERN_FOOD, TAVERN_MUSIC) <= 1
+          && count(types, HOUSE, SHOP) <= 2 && BoardShape.factoryRanking(id) != 1 && score >= 16;
+    });
+    assertThat(expected.length).isGreaterThan(0);
+    BoardQuery query = BoardQuery.builder(SMALL).cell(0, 1, HOUSE, PARK)
+        .cell(1, 2, HOUSE, OFFICE, PARK, SHOP, TAVERN_BED, TAVERN_DRINK, TAVERN_FOOD, TAVERN_MUSIC)
+        .count(2, 6, PARK).count(0, 1, TAVERN_BED, TAVERN_DRINK, TAVERN_FOOD, TAVERN_MUSIC)
+        .count(0, 2, HOUSE, SHOP).factoryRankings(2, 3).minScore(16).build();
+    assertThat(query.ids().toArray()).isEqualTo(expected);
+  }
+
+  @Test
+  public void houseAndOfficeCountsMatchScan() {
+    GridScorer scorer = GridScorer.of(SMALL);
+    int[] types = new int[SMALL.cells];
+    int[] masks = new int[BoardShape.TYPES];
+    long[] expected = scan(id -> {
+      int score = scorer.scoreId(id, types, masks);
+      return count(types, HOUSE) >= 3 && count(types, OFFICE) == 1 && score >= 12;
+    });
+    assertThat(expected.length).isGreaterThan(0);
+    BoardQuery query = BoardQuery.builder(SMALL).count(3, 6, HOUSE).count(1, 1, OFFICE)
+        .minScore(12).build();
+    assertThat(query.ids().toArray()).isEqualTo(expected);
+  }
+
+  @Test
+  public void prefixConstraintsMatchScanOfStandardBoards() {
+    long first = 3 * 4_123_456_789L * 59_049;
+    BoardQuery.Builder builder = BoardQuery.builder();
+    long packed = BoardGenerator.packBoard(first);
+    for (int cell = 0; cell < 11; cell++) {
+      builder.cell(cell / 4, cell % 4, Tile.Type.values()[PackedBoardScorer.tileAt(packed, cell)]);
+    }
+    long[] expected = LongStream.range(first, first + 3 * 59_049)
+        .filter(id -> PackedBoardScorer.scoreId(id) >= 40).toArray();
+    assertThat(expected.length).isGreaterThan(0);
+    assertThat(builder.minScore(40).build().ids().toArray()).isEqualTo(expected);
+  }
+
+  @Test
+  public void findsEveryBestBoard() {
+    long[] ids = BoardQuery.builder().minScore(71).build().ids().toArray();
+    assertThat(ids.length).isEqualTo(144);
+    for (long id : ids) {
+      assertThat(PackedBoardScorer.scoreId(id)).isEqualTo(71);
+    }
+  }
+
+  @Test
+  public void unselectiveQueriesAreLazy() {
+    BoardQuery query = BoardQuery.builder()
+        .count(0, 0, TAVERN_BED, TAVERN_DRINK, TAVERN_FOOD, TAVERN_MUSIC).count(5, 16, PARK)
+        .build();
+    query.boards().limit(1_000).forEach(board -> {
+      assertThat(board.graph.nodes().stream().filter(Tile::isPark).count()).isAtLeast(5L);
+      assertThat(board.graph.nodes().stream().anyMatch(Tile::isTavern)).isFalse();
+    });
+  }
+
+  @Test
+  public void rejectsCellsOutsideTheBoard() {
+    try {
+      BoardQuery.builder().cell(4, 0, FACTORY);
+      assert_().fail("Expected IndexOutOfBoundsException");
+    } catch (IndexOutOfBoundsException expected) {
+    }
+  }
+}
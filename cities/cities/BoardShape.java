@@ -0,0 +1,131 @@
+package cities;
+
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.base.Preconditions;
+
+import cities.Tile.Type;
+
+/**
+ * The dimensions of a city grid, with its adjacency masks and the codec between boards and ids.
+ * Shapes are interned by {@link #of}, so their tables are built once per size.
+ * <p>
+ * Cells are numbered row-major from 0, and a cell mask has bit {@code i} set for cell {@code i}.
+ * A board id is {@code 3 * d + (factoryRanking - 1)}, where {@code d} is the base-9 number whose
+ * digits are the {@link Type} ordinals of the cells, cell 0 most significant. Ids only fit in a
+ * long for grids of at most {@value #MAX_ID_CELLS} cells; larger grids have no id methods and are
+ * built from tile types directly.
+ */
+final class BoardShape {
+  static final int MAX_CELLS = 30;
+  static final int MAX_ID_CELLS = 19;
+  static final int TYPES = Type.values().length;
+
+  private static final Map<Long, BoardShape> shapes = new ConcurrentHashMap<>();
+
+  static final BoardShape STANDARD = of(4, 4);
+
+  final int rows;
+  final int columns;
+  final int cells;
+  final int fullMask;
+  private final int firstColumn;
+  private final int lastColumn;
+  private final long[] placeValues;
+  private final long boardCount;
+
+  private BoardShape(int rows, int columns) {
+    this.rows = rows;
+    this.columns = columns;
+    cells = rows * columns;
+    fullMask = (1 << cells) - 1;
+    int first = 0;
+    for (int row = 0; row < rows; row++) {
+      first |= 1 << (row * columns);
+    }
+    firstColumn = first;
+    lastColumn = first << (columns - 1);
+    if (cells <= MAX_ID_CELLS) {
+      placeValues = new long[cells];
+      long placeValue = 3;
+      for (int cell = cells - 1; cell >= 0; cell--) {
+        placeValues[cell] = placeValue;
+        placeValue *= TYPES;
+      }
+      boardCount = placeValue;
+    } else {
+      placeValues = null;
+      boardCount = -1;
+    }
+  }
+
+  static BoardShape of(int rows, int columns) {
+    Preconditions.checkArgument(rows > 0 && columns > 0, "Invalid shape %sx%s", rows, columns);
+    Preconditions.checkArgument(rows * columns <= MAX_CELLS, "At most %s cells are supported",
+        MAX_CELLS);
+    return shapes.computeIfAbsent(((long) rows << 32) | columns,
+        key -> new BoardShape(rows, columns));
+  }
+
+  /** The cells orthogonally adjacent to at least one cell of {@code mask}. */
+  int neighbours(int mask) {
+    return ((mask << 1) & ~firstColumn & fullMask) | ((mask >>> 1) & ~lastColumn)
+        | ((mask << columns) & fullMask) | (mask >>> columns);
+  }
+
+  int edges() {
+    return rows * (columns - 1) + columns * (rows - 1);
+  }
+
+  boolean hasLongIds() {
+    return placeValues != null;
+  }
+
+  /** The number of distinct board ids; the ids are {@code [0, boardCount())}. */
+  long boardCount() {
+    checkIds();
+    return boardCount;
+  }
+
+  /** The number of distinct boards, for shapes too large for {@link #boardCount}. */
+  BigInteger exactBoardCount() {
+    return BigInteger.valueOf(TYPES).pow(cells).multiply(BigInteger.valueOf(3));
+  }
+
+  /** Writes the {@link Type} ordinal of each cell of board {@code id} into {@code types}. */
+  void decode(long id, int[] types) {
+    checkIds();
+    Preconditions.checkArgument(id >= 0 && id < boardCount, "Invalid board id %s", id);
+    long digits = id / 3;
+    for (int cell = cells - 1; cell >= 0; cell--) {
+      types[cell] = (int) (digits % TYPES);
+      digits /= TYPES;
+    }
+  }
+
+  static int factoryRanking(long id) {
+    return (int) (id % 3) + 1;
+  }
+
+  long encode(int[] types, int factoryRanking) {
+    checkIds();
+    Preconditions.checkArgument(factoryRanking >= 1 && factoryRanking <= 3);
+    long id = factoryRanking - 1;
+    for (int cell = 0; cell < cells; cell++) {
+      id += types[cell] * placeValues[cell];
+    }
+    return id;
+  }
+
+  private void checkIds() {
+    Preconditions.checkState(placeValues != null, "A %sx%s board id does not fit in a long", rows,
+        columns);
+  }
+
+  @Override
+  public String toString() {
+    return rows + "x" + columns;
+  }
+}
@@ -0,0 +1,78 @@
+package cities;
+
+import static com.google.common.truth.Truth.assert_;
+import static com.google.common.truth.Truth.assertThat;
+
+import java.math.BigInteger;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+public class BoardShapeTests {
+
+  @Test
+  public void shapesAreInterned() {
+    assertThat(BoardShape.of(4, 4)).isSameAs(BoardShape.STANDARD);
+    assertThat(BoardShape.of(3, 5)).isSameAs(BoardShape.of(3, 5));
+  }
+
+  @Test
+  public void standardShapeMatchesPackedScorer() {
+    for (int mask : new int[] {0x1, 0x8, 0x80, 0x8000, 0x0660, 0xA5A5}) {
+      assertThat(BoardShape.STANDARD.neighbours(mask))
+          .isEqualTo(PackedBoardScorer.neighbours(mask));
+    }
+    assertThat(BoardShape.STANDARD.boardCount()).isEqualTo(BoardGenerator.MAX_LONG_EXCLUSIVE);
+    assertThat(BoardShape.STANDARD.edges()).isEqualTo(24);
+  }
+
+  @Test
+  public void neighboursDoNotWrapRows() {
+    BoardShape shape = BoardShape.of(3, 4);
+    // Cell 3 ends row 0 and cell 4 starts row 1.
+    assertThat(shape.neighbours(1 << 3)).isEqualTo((1 << 2) | (1 << 7));
+    assertThat(shape.neighbours(1 << 4)).isEqualTo((1 << 0) | (1 << 5) | (1 << 8));
+  }
+
+  @Test
+  public void decodeMatchesStandardGenerator() {
+    int[] types = new int[16];
+    BoardShape.STANDARD.decode(3L, types);
+    assertThat(types[15]).isEqualTo(1);
+    assertThat(BoardShape.STANDARD.encode(types, 1)).isEqualTo(3L);
+  }
+
+  @Test
+  public void encodeInvertsDecode() {
+    SplittableRandom random = new SplittableRandom(5);
+    for (BoardShape shape : new BoardShape[] {BoardShape.of(1, 1), BoardShape.of(3, 3),
+        BoardShape.of(2, 9), BoardShape.of(1, 19)}) {
+      int[] types = new int[shape.cells];
+      for (int i = 0; i < 1_000; i++) {
+        long id = random.nextLong(shape.boardCount());
+        shape.decode(id, types);
+        assertThat(shape.encode(types, BoardShape.factoryRanking(id))).isEqualTo(id);
+      }
+    }
+  }
+
+  @Test
+  public void largeShapesHaveNoLongIds() {
+    BoardShape shape = BoardShape.of(5, 5);
+    assertThat(shape.hasLongIds()).isFalse();
+    assertThat(shape.exactBoardCount())
+        .isEqualTo(BigInteger.valueOf(9).pow(25).multiply(BigInteger.valueOf(3)));
+    try {
+      shape.boardCount();
+      assert_().fail("Expected IllegalStateException");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test
+  public void longIdsCoverNineteenCells() {
+    assertThat(BoardShape.of(1, 19).boardCount())
+        .isEqualTo(BigInteger.valueOf(9).pow(19).multiply(BigInteger.valueOf(3)).longValueExact());
+    assertThat(BoardShape.of(4, 5).hasLongIds()).isFalse();
+  }
+}
@@ -0,0 +1,401 @@
+package cities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+import com.google.common.base.Preconditions;
+
+import cities.ScoringOracle.Category;
+
+/**
+ * Histograms of each {@link Category}'s score and of the total, plus joint histograms of selected
+ * pairs of categories, filled during an enumeration or sampling run.
+ * <p>
+ * Every thread records into its own {@link Recorder}, one plain {@code long} array, so recording
+ * is a handful of unsynchronised increments; {@link #merged} adds the recorders up at the end.
+ * Scores above {@value #MAX_SCORE}, more than any standard board reaches, fall into the last bin.
+ * <p>
+ * {@link Recorder#writeColumns} stores one column per histogram: a header naming it and its
+ * dimensions, then its counts as varints, so the many empty bins take a byte each.
+ * {@link Recorder#writeCsv} lists the non-empty bins, one per line.
+ * <p>
+ * Usage: {@code CategoryHistograms [first id] [boards] [output prefix]} scans an id range in
+ * parallel, writes {@code <prefix>.hist} and {@code <prefix>.csv}, and reports the scan rate with
+ * and without recording. It defaults to 50 million boards from the middle of the id space.
+ */
+final class CategoryHistograms {
+  /** One less than a power of two, so that joint bins can be addressed with shifts. */
+  static final int MAX_SCORE = 127;
+  /** The most joint histograms recorded, so that recording can be unrolled. */
+  static final int MAX_PAIRS = 3;
+  /** The categories, then the total. */
+  static final int HISTOGRAMS = Category.values().length + 1;
+  private static final int MAGIC = 0x43485354;
+  private static final int CATEGORIES = Category.values().length;
+  private static final int ROUNDS = 7;
+  /** The recording overhead, in percent of the plain scan time, that {@link #main} aims for. */
+  private static final double TARGET_OVERHEAD_PERCENT = 5;
+
+  private final Category[][] pairs;
+  private final List<Recorder> recorders = new ArrayList<>();
+  private final ThreadLocal<Recorder> local;
+
+  /** Histograms with a joint histogram for each pair of categories in {@code pairs}. */
+  CategoryHistograms(Category[]... pairs) {
+    Preconditions.checkArgument(pairs.length <= MAX_PAIRS, "At most %s pairs", MAX_PAIRS);
+    for (Category[] pair : pairs) {
+      Preconditions.checkArgument(pair.length == 2, "Pairs must have two categories");
+    }
+    this.pairs = pairs.clone();
+    local = ThreadLocal.withInitial(() -> {
+      Recorder recorder = new Recorder(this.pairs);
+      synchronized (recorders) {
+        recorders.add(recorder);
+      }
+      return recorder;
+    });
+  }
+
+  /** The calling thread's recorder. */
+  Recorder recorder() {
+    return local.get();
+  }
+
+  /** Records one board's category scores on the calling thread's recorder. */
+  void record(int[] categoryScores) {
+    local.get().record(categoryScores);
+  }
+
+  /** The sum of every thread's recordings so far; call once recording has finished. */
+  Recorder merged() {
+    Recorder merged = new Recorder(pairs);
+    synchronized (recorders) {
+      for (Recorder recorder : recorders) {
+        merged.add(recorder);
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * One thread's counts, all in one array: a histogram of {@value #MAX_SCORE} + 1 bins for each
+   * category and the total, then a square joint histogram for each pair. A category in a pair is
+   * only counted in the first joint histogram it appears in, and its own histogram is summed from
+   * there when read, which saves an increment per board. Not thread-safe.
+   */
+  static final class Recorder {
+    private static final int BITS = 7;
+    private static final int BINS = 1 << BITS;
+    private static final int JOINT_START = HISTOGRAMS * BINS;
+
+    final Category[][] pairs;
+    private final long[] counts;
+    private final int pairCount;
+    // The pairs' categories, unrolled into fields; a loop over arrays costs several percent.
+    private final int first0;
+    private final int second0;
+    private final int first1;
+    private final int second1;
+    private final int first2;
+    private final int second2;
+    /** The categories counted directly, in no pair. */
+    private final int[] unpaired;
+    /** For each category, the first pair holding it and whether it is second there, or -1. */
+    private final int[] pairOf;
+    private final boolean[] secondInPair;
+
+    Recorder(Category[][] pairs) {
+      this.pairs = pairs;
+      counts = new long[JOINT_START + pairs.length * BINS * BINS];
+      pairCount = pairs.length;
+      int[] firstOfPair = new int[MAX_PAIRS];
+      int[] secondOfPair = new int[MAX_PAIRS];
+      pairOf = new int[CATEGORIES];
+      secondInPair = new boolean[CATEGORIES];
+      Arrays.fill(pairOf, -1);
+      for (int i = pairs.length - 1; i >= 0; i--) {
+        firstOfPair[i] = pairs[i][0].ordinal();
+        secondOfPair[i] = pairs[i][1].ordinal();
+        pairOf[secondOfPair[i]] = i;
+        secondInPair[secondOfPair[i]] = true;
+        pairOf[firstOfPair[i]] = i;
+        secondInPair[firstOfPair[i]] = false;
+      }
+      first0 = firstOfPair[0];
+      second0 = secondOfPair[0];
+      first1 = firstOfPair[1];
+      second1 = secondOfPair[1];
+      first2 = firstOfPair[2];
+      second2 = secondOfPair[2];
+      unpaired = IntStream.range(0, CATEGORIES).filter(category -> pairOf[category] < 0)
+          .toArray();
+    }
+
+    /** Records a board's category scores, in {@link Category} order. */
+    void record(int[] categoryScores) {
+      long[] counts = this.counts;
+      int total = categoryScores[0] + categoryScores[1] + categoryScores[2] + categoryScores[3]
+          + categoryScores[4] + categoryScores[5];
+      counts[CATEGORIES * BINS + Math.min(total, MAX_SCORE)]++;
+      for (int category : unpaired) {
+        counts[category * BINS + Math.min(categoryScores[category], MAX_SCORE)]++;
+      }
+      if (pairCount > 0) {
+        counts[jointBin(0, categoryScores[first0], categoryScores[second0])]++;
+      }
+      if (pairCount > 1) {
+        counts[jointBin(1, categoryScores[first1], categoryScores[second1])]++;
+      }
+      if (pairCount > 2) {
+        counts[jointBin(2, categoryScores[first2], categoryScores[second2])]++;
+      }
+    }
+
+    private static int jointBin(int pair, int firstScore, int secondScore) {
+      return JOINT_START + ((pair << BITS | Math.min(firstScore, MAX_SCORE)) << BITS
+          | Math.min(secondScore, MAX_SCORE));
+    }
+
+    void add(Recorder other) {
+      Preconditions.checkArgument(Arrays.deepEquals(pairs, other.pairs), "Different pairs");
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += other.counts[i];
+      }
+    }
+
+    /** The number of boards recorded. */
+    long getBoards() {
+      long boards = 0;
+      for (int score = 0; score <= MAX_SCORE; score++) {
+        boards += getTotalCount(score);
+      }
+      return boards;
+    }
+
+    long getCount(Category category, int score) {
+      int pair = pairOf[category.ordinal()];
+      if (pair < 0) {
+        return counts[category.ordinal() * BINS + score];
+      }
+      long count = 0;
+      for (int other = 0; other <= MAX_SCORE; other++) {
+        count += secondInPair[category.ordinal()] ? getJointCount(pair, other, score)
+            : getJointCount(pair, score, other);
+      }
+      return count;
+    }
+
+    long getTotalCount(int score) {
+      return counts[CATEGORIES * BINS + score];
+    }
+
+    long getJointCount(int pair, int firstScore, int secondScore) {
+      return counts[jointBin(pair, firstScore, secondScore)];
+    }
+
+    private String name(int histogram) {
+      return histogram < CATEGORIES ? Category.values()[histogram].name().toLowerCase(Locale.ROOT)
+          : "total";
+    }
+
+    private String pairName(int pair) {
+      return pairs[pair][0].name().toLowerCase(Locale.ROOT) + ":"
+          + pairs[pair][1].name().toLowerCase(Locale.ROOT);
+    }
+
+    /** Writes the columnar file described in {@link CategoryHistograms}. */
+    void writeColumns(Path path) throws IOException {
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(path)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(HISTOGRAMS + pairs.length);
+        for (int i = 0; i < HISTOGRAMS; i++) {
+          writeColumn(out, name(i), 1, histogram(i));
+        }
+        for (int i = 0; i < pairs.length; i++) {
+          int start = JOINT_START + i * BINS * BINS;
+          writeColumn(out, pairName(i), 2, Arrays.copyOfRange(counts, start, start + BINS * BINS));
+        }
+      }
+    }
+
+    private long[] histogram(int histogram) {
+      long[] histogramCounts = new long[BINS];
+      for (int score = 0; score <= MAX_SCORE; score++) {
+        histogramCounts[score] = histogram < CATEGORIES
+            ? getCount(Category.values()[histogram], score) : getTotalCount(score);
+      }
+      return histogramCounts;
+    }
+
+    private static void writeColumn(DataOutputStream out, String name, int dimensions,
+        long[] column) throws IOException {
+      out.writeUTF(name);
+      out.writeByte(dimensions);
+      out.writeInt(column.length);
+      for (long count : column) {
+        while ((count & ~0x7FL) != 0) {
+          out.writeByte((int) (count | 0x80));
+          count >>>= 7;
+        }
+        out.writeByte((int) count);
+      }
+    }
+
+    /** Writes {@code histogram,first score,second score,count} for every non-empty bin. */
+    void writeCsv(Path path) throws IOException {
+      try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+        out.write("histogram,score,second_score,boards\n");
+        for (int i = 0; i < HISTOGRAMS; i++) {
+          long[] histogramCounts = histogram(i);
+          for (int score = 0; score <= MAX_SCORE; score++) {
+            if (histogramCounts[score] != 0) {
+              out.write(name(i) + "," + score + ",," + histogramCounts[score] + "\n");
+            }
+          }
+        }
+        for (int i = 0; i < pairs.length; i++) {
+          for (int first = 0; first <= MAX_SCORE; first++) {
+            for (int second = 0; second <= MAX_SCORE; second++) {
+              long count = getJointCount(i, first, second);
+              if (count != 0) {
+                out.write(pairName(i) + "," + first + "," + second + "," + count + "\n");
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the columns of a file written by {@link Recorder#writeColumns}, in file order, checking
+   * that they have the layout it writes: {@value #HISTOGRAMS} one-dimensional columns, then at most
+   * {@value #MAX_PAIRS} two-dimensional ones.
+   */
+  static List<long[]> readColumns(Path path, List<String> names) throws IOException {
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(path));
+        DataInputStream data = new DataInputStream(in)) {
+      Preconditions.checkArgument(data.readInt() == MAGIC, "%s is not a histogram file", path);
+      int columns = data.readInt();
+      Preconditions.checkArgument(columns >= HISTOGRAMS && columns <= HISTOGRAMS + MAX_PAIRS,
+          "%s has %s columns", path, columns);
+      List<long[]> counts = new ArrayList<>(columns);
+      for (int column = 0; column < columns; column++) {
+        String name = data.readUTF();
+        int dimensions = data.readByte();
+        int length = data.readInt();
+        int expectedDimensions = column < HISTOGRAMS ? 1 : 2;
+        Preconditions.checkArgument(dimensions == expectedDimensions,
+            "Column %s of %s has %s dimensions, not %s", name, path, dimensions,
+            expectedDimensions);
+        Preconditions.checkArgument(length == (dimensions == 1 ? Recorder.BINS
+            : Recorder.BINS * Recorder.BINS), "Column %s of %s has %s bins", name, path, length);
+        names.add(name);
+        long[] values = new long[length];
+        for (int i = 0; i < values.length; i++) {
+          long value = 0;
+          int shift = 0;
+          byte b;
+          do {
+            b = data.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+          } while (b < 0);
+          values[i] = value;
+        }
+        counts.add(values);
+      }
+      return counts;
+    }
+  }
+
+  /** Fills {@code scores} with the category scores of the standard board {@code id}. */
+  static void scoreCategories(long id, int[] types, int[] masks, int[] scores) {
+    BoardShape.STANDARD.decode(id, types);
+    Arrays.fill(masks, 0);
+    for (int cell = 0; cell < types.length; cell++) {
+      masks[types[cell]] |= 1 << cell;
+    }
+    PackedBoardScorer.scoreCategories(masks, BoardShape.factoryRanking(id), scores);
+  }
+
+  /** Per-thread scratch space for scoring in a parallel scan. */
+  private static final class Scratch {
+    final int[] types = new int[BoardShape.STANDARD.cells];
+    final int[] masks = new int[BoardShape.TYPES];
+    final int[] scores = new int[CATEGORIES];
+    final Recorder recorder;
+
+    Scratch(CategoryHistograms histograms) {
+      recorder = histograms != null ? histograms.recorder() : null;
+    }
+  }
+
+  /** Scans boards {@code [first, last)}, recording into {@code histograms} unless it is null. */
+  private static double scanRate(long first, long last, CategoryHistograms histograms) {
+    ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(() -> new Scratch(histograms));
+    long start = System.nanoTime();
+    // Without recording, sum the scores so that the JIT cannot discard the scoring.
+    long checksum = BoardGenerator.boardIds(first, last).parallel().map(id -> {
+      Scratch s = scratch.get();
+      scoreCategories(id, s.types, s.masks, s.scores);
+      if (s.recorder != null) {
+        s.recorder.record(s.scores);
+        return 0;
+      }
+      return s.scores[0] + s.scores[1] + s.scores[2] + s.scores[3] + s.scores[4] + s.scores[5];
+    }).sum();
+    long elapsed = System.nanoTime() - start;
+    if (checksum == Long.MIN_VALUE) {
+      System.out.println(checksum);
+    }
+    return (last - first) * 1e9 / elapsed;
+  }
+
+  public static void main(String[] args) throws IOException {
+    long boardCount = BoardShape.STANDARD.boardCount();
+    long first = args.length > 0 ? Long.parseLong(args[0]) : boardCount / 2;
+    long boards = args.length > 1 ? Long.parseLong(args[1]) : 50_000_000;
+    String prefix = args.length > 2 ? args[2] : "category-histograms";
+    long last = Math.min(first + boards, boardCount);
+    Category[][] pairs = {
+        {Category.PARKS, Category.SHOPS},
+        {Category.FACTORIES, Category.HOUSES},
+        {Category.OFFICES, Category.TAVERNS}};
+
+    // Alternate the two scans and keep the best of each, so that neither JIT warm-up nor a noisy
+    // machine favours one.
+    double plainRate = 0;
+    double recordingRate = 0;
+    CategoryHistograms histograms = null;
+    for (int round = 0; round < ROUNDS; round++) {
+      plainRate = Math.max(plainRate, scanRate(first, last, null));
+      histograms = new CategoryHistograms(pairs);
+      recordingRate = Math.max(recordingRate, scanRate(first, last, histograms));
+    }
+    Recorder merged = histograms.merged();
+    merged.writeColumns(Paths.get(prefix + ".hist"));
+    merged.writeCsv(Paths.get(prefix + ".csv"));
+    double overhead = 100 * (plainRate / recordingRate - 1);
+    System.err.println(String.format("%d boards from %d%nplain %.0f boards/s, recording %.0f "
+        + "boards/s (%.1f%% slower, %s the %.0f%% target)%nwrote %s.hist and %s.csv",
+        merged.getBoards(), first, plainRate, recordingRate, overhead,
+        overhead < TARGET_OVERHEAD_PERCENT ? "meets" : "misses", TARGET_OVERHEAD_PERCENT, prefix,
+        prefix));
+  }
+}
@@ -0,0 +1,159 @@
+package cities;
+
+import static com.google.common.truth.Truth.assert_;
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+import cities.CategoryHistograms.Recorder;
+import cities.ScoringOracle.Category;
+
+public class CategoryHistogramsTests {
+  private static final Category[][] PAIRS = {
+      {Category.PARKS, Category.SHOPS}, {Category.OFFICES, Category.PARKS}};
+
+  private static long[] randomIds(int count) {
+    return new SplittableRandom(35).longs(count, 0, BoardShape.STANDARD.boardCount()).toArray();
+  }
+
+  private static Recorder record(long[] ids) {
+    CategoryHistograms histograms = new CategoryHistograms(PAIRS);
+    int[] types = new int[BoardShape.STANDARD.cells];
+    int[] masks = new int[BoardShape.TYPES];
+    int[] scores = new int[Category.values().length];
+    for (long id : ids) {
+      CategoryHistograms.scoreCategories(id, types, masks, scores);
+      histograms.record(scores);
+    }
+    return histograms.merged();
+  }
+
+  @Test
+  public void countsMatchBoards() {
+    long[] ids = randomIds(2_000);
+    Recorder recorder = record(ids);
+    int categories = Category.values().length;
+    long[][] expected = new long[categories][CategoryHistograms.MAX_SCORE + 1];
+    long[] expectedTotals = new long[CategoryHistograms.MAX_SCORE + 1];
+    long[][] expectedJoint =
+        new long[CategoryHistograms.MAX_SCORE + 1][CategoryHistograms.MAX_SCORE + 1];
+    for (long id : ids) {
+      Board board = BoardGenerator.generateBoardFromLong(id);
+      for (Category category : Category.values()) {
+        expected[category.ordinal()][category.reference.applyAsInt(board)]++;
+      }
+      expectedTotals[board.getScore()]++;
+      expectedJoint[board.scoreOffices()][board.scoreParks()]++;
+    }
+    assertThat(recorder.getBoards()).isEqualTo((long) ids.length);
+    for (int score = 0; score <= CategoryHistograms.MAX_SCORE; score++) {
+      for (Category category : Category.values()) {
+        assertThat(recorder.getCount(category, score))
+            .isEqualTo(expected[category.ordinal()][score]);
+      }
+      assertThat(recorder.getTotalCount(score)).isEqualTo(expectedTotals[score]);
+      for (int second = 0; second <= CategoryHistograms.MAX_SCORE; second++) {
+        assertThat(recorder.getJointCount(1, score, second))
+            .isEqualTo(expectedJoint[score][second]);
+      }
+    }
+  }
+
+  @Test
+  public void mergesThreads() {
+    long[] ids = randomIds(4_000);
+    CategoryHistograms histograms = new CategoryHistograms(PAIRS);
+    ThreadLocal<int[][]> scratch = ThreadLocal.withInitial(() -> new int[][] {
+        new int[BoardShape.STANDARD.cells], new int[BoardShape.TYPES],
+        new int[Category.values().length]});
+    Arrays.stream(ids).parallel().forEach(id -> {
+      int[][] s = scratch.get();
+      CategoryHistograms.scoreCategories(id, s[0], s[1], s[2]);
+      histograms.record(s[2]);
+    });
+    Recorder merged = histograms.merged();
+    Recorder sequential = record(ids);
+    for (int score = 0; score <= CategoryHistograms.MAX_SCORE; score++) {
+      assertThat(merged.getTotalCount(score)).isEqualTo(sequential.getTotalCount(score));
+      assertThat(merged.getCount(Category.SHOPS, score))
+          .isEqualTo(sequential.getCount(Category.SHOPS, score));
+      assertThat(merged.getJointCount(0, score, 3))
+          .isEqualTo(sequential.getJointCount(0, score, 3));
+    }
+  }
+
+  @Test
+  public void writesColumnsAndCsv() throws IOException {
+    Recorder recorder = record(randomIds(500));
+    Path directory = Files.createTempDirectory("category-histograms");
+    Path columns = directory.resolve("h.hist");
+    Path csv = directory.resolve("h.csv");
+    recorder.writeColumns(columns);
+    recorder.writeCsv(csv);
+
+    List<String> names = new ArrayList<>();
+    List<long[]> counts = CategoryHistograms.readColumns(columns, names);
+    assertThat(names).containsExactly("factories", "houses", "offices", "parks", "shops",
+        "taverns", "total", "parks:shops", "offices:parks").inOrder();
+    long[] parks = counts.get(Category.PARKS.ordinal());
+    long[] totals = counts.get(names.indexOf("total"));
+    long[] joint = counts.get(names.indexOf("offices:parks"));
+    assertThat(joint).hasLength(parks.length * parks.length);
+    for (int score = 0; score <= CategoryHistograms.MAX_SCORE; score++) {
+      assertThat(parks[score]).isEqualTo(recorder.getCount(Category.PARKS, score));
+      assertThat(totals[score]).isEqualTo(recorder.getTotalCount(score));
+    }
+    assertThat(joint[5 * parks.length + 2]).isEqualTo(recorder.getJointCount(1, 5, 2));
+
+    List<String> lines = Files.readAllLines(csv, StandardCharsets.UTF_8);
+    assertThat(lines.get(0)).isEqualTo("histogram,score,second_score,boards");
+    long totalBoards = 0;
+    for (String line : lines) {
+      if (line.startsWith("total,")) {
+        totalBoards += Long.parseLong(line.substring(line.lastIndexOf(',') + 1));
+      }
+    }
+    assertThat(totalBoards).isEqualTo(500L);
+
+    Files.delete(columns);
+    Files.delete(csv);
+    Files.delete(directory);
+  }
+
+  @Test
+  public void rejectsColumnsWithTheWrongLayout() throws IOException {
+    Path columns = Files.createTempFile("category-histograms", ".hist");
+    record(randomIds(10)).writeColumns(columns);
+    byte[] bytes = Files.readAllBytes(columns);
+    // The first column's dimensions byte follows the magic number, the column count and its name.
+    int dimensions = 4 + 4 + 2 + "factories".length();
+    assertThat(bytes[dimensions]).isEqualTo((byte) 1);
+    bytes[dimensions] = 2;
+    Files.write(columns, bytes);
+    try {
+      CategoryHistograms.readColumns(columns, new ArrayList<>());
+      assert_().fail();
+    } catch (IllegalArgumentException expected) {
+      assertThat(expected.getMessage()).contains("dimensions");
+    }
+    Files.delete(columns);
+  }
+
+  @Test
+  public void rejectsTooManyPairs() {
+    try {
+      new CategoryHistograms(PAIRS[0], PAIRS[1], PAIRS[0], PAIRS[1]);
+      assert_().fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
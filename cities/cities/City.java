@@ -0,0 +1,100 @@
+package cities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+
+import cities.Tile.Type;
+
+/**
+ * A 4x4 city under construction during a simulated game. Cells hold {@link Type} ordinals in
+ * row-major order, or {@link #EMPTY} if no tile has been placed there yet.
+ */
+class City {
+  static final int EMPTY = -1;
+  static final int SIZE = 16;
+  static final int WIDTH = 4;
+
+  private static final Type[] TYPES = Type.values();
+
+  private final byte[] cells = new byte[SIZE];
+  private final int[] typeCounts = new int[TYPES.length];
+  private int placed;
+
+  City() {
+    clear();
+  }
+
+  void clear() {
+    for (int i = 0; i < SIZE; i++) {
+      cells[i] = EMPTY;
+    }
+    for (int i = 0; i < typeCounts.length; i++) {
+      typeCounts[i] = 0;
+    }
+    placed = 0;
+  }
+
+  void place(int cell, int type) {
+    if (cells[cell] != EMPTY) {
+      throw new IllegalArgumentException(String.format("Cell %d is already occupied!", cell));
+    }
+    cells[cell] = (byte) type;
+    typeCounts[type]++;
+    placed++;
+  }
+
+  int get(int cell) {
+    return cells[cell];
+  }
+
+  boolean isEmpty(int cell) {
+    return cells[cell] == EMPTY;
+  }
+
+  int count(Type type) {
+    return typeCounts[type.ordinal()];
+  }
+
+  int placed() {
+    return placed;
+  }
+
+  boolean isFull() {
+    return placed == SIZE;
+  }
+
+  /** Returns whether any orthogonal neighbour of {@code cell} holds a tile of {@code type}. */
+  boolean isAdjacentTo(int cell, int type) {
+    int row = cell / WIDTH;
+    int col = cell % WIDTH;
+    return (row > 0 && cells[cell - WIDTH] == type)
+        || (row < WIDTH - 1 && cells[cell + WIDTH] == type)
+        || (col > 0 && cells[cell - 1] == type) || (col < WIDTH - 1 && cells[cell + 1] == type);
+  }
+
+  /**
+   * Scores the finished city with {@link PackedBoardScorer}, which follows {@link Board}'s rules.
+   * {@code scratchMasks} must have room for one mask per type; its contents are overwritten.
+   */
+  int score(int factoryRanking, int[] scratchMasks) {
+    Preconditions.checkState(isFull(), "Only a finished city can be scored!");
+    Arrays.fill(scratchMasks, 0);
+    for (int i = 0; i < SIZE; i++) {
+      scratchMasks[cells[i]] |= 1 << i;
+    }
+    return PackedBoardScorer.score(scratchMasks, factoryRanking);
+  }
+
+  /** Builds the finished city as a {@link Board} so it is scored by the regular rules. */
+  Board toBoard(int factoryRanking) {
+    Preconditions.checkState(isFull(), "Only a finished city can be scored!");
+    List<Tile> tiles = new ArrayList<>(SIZE);
+    for (int i = 0; i < SIZE; i++) {
+      tiles.add(new Tile(TYPES[cells[i]]));
+    }
+    return new Board(factoryRanking, tiles);
+  }
+}
@@ -0,0 +1,200 @@
+package cities;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+/**
+ * The boards of a shape with one exact score, counted for every prefix of cells filled in row-major
+ * order: the number of ways to complete the prefix so that the board scores the target. Drawing
+ * each next cell in proportion to those counts picks every board of the class with equal
+ * probability, however rare the class.
+ * <p>
+ * A prefix is reduced to its state in {@link CompletionStates}, with the score still needed from
+ * the remaining cells, and the counts are memoised on that pair. Only the pairs whose need lies in
+ * the state's range of completion scores are visited, so a class in the tail of the distribution
+ * touches few of them. On the standard shape, 16 (one board in 10^10) and 69 (one in 10^7) count
+ * in under half a second, 66 (one in 3 x 10^5) in ten seconds, and every class draws tens of
+ * thousands of samples a second.
+ */
+final class CompletionCounts {
+  /** Completion scores of one state span fewer values than this. */
+  private static final int SCORE_SPAN = 256;
+
+  final BoardShape shape;
+  final int score;
+  private final CompletionStates states;
+  /** Completion counts keyed by {@code (3 * state + ranking - 1) * SCORE_SPAN + need - lowest}. */
+  private final CountTable memo = new CountTable();
+  /** The boards by factory ranking and house value, at {@code 6 * (ranking - 1) + houseValue}. */
+  private final long[] roots = new long[3 * (CompletionStates.CATEGORIES + 1)];
+  private final long count;
+
+  private CompletionCounts(CompletionStates states, int score) {
+    this.shape = states.shape;
+    this.score = score;
+    this.states = states;
+    CompletionStates.Walk walk = states.new Walk();
+    long count = 0;
+    for (int ranking = 1; ranking <= 3; ranking++) {
+      for (int houseValue = 0; houseValue <= CompletionStates.CATEGORIES; houseValue++) {
+        long boards = completions(walk, ranking, houseValue, 0, 0, score);
+        roots[root(ranking, houseValue)] = boards;
+        count += boards;
+      }
+    }
+    this.count = count;
+  }
+
+  /** The counts for boards of {@code shape} scoring {@code score}. */
+  static CompletionCounts of(BoardShape shape, int score) {
+    return new CompletionCounts(CompletionStates.of(shape), score);
+  }
+
+  /** The number of boards scoring the target. */
+  long count() {
+    return count;
+  }
+
+  /**
+   * Draws one id scoring the target, every such board equally likely, using only {@code random}
+   * for randomness.
+   *
+   * @throws NoSuchElementException if no board scores the target
+   */
+  long draw(SplittableRandom random) {
+    if (count == 0) {
+      throw new NoSuchElementException("No " + shape + " board scores " + score);
+    }
+    int root = pick(roots, random.nextLong(count));
+    int ranking = root / (CompletionStates.CATEGORIES + 1) + 1;
+    int houseValue = root % (CompletionStates.CATEGORIES + 1);
+    CompletionStates.Walk walk = states.new Walk();
+    long[] weights = new long[walk.moves[0].keys.length];
+    int[] types = new int[shape.cells];
+    int need = score;
+    long key = 0;
+    for (int level = 0; level < shape.cells; level++) {
+      CompletionStates.Moves moves = walk.moves[level];
+      int n = states.moves(walk, ranking, houseValue, level, key);
+      long total = 0;
+      for (int i = 0; i < n; i++) {
+        weights[i] = completions(walk, ranking, houseValue, level + 1, moves.keys[i],
+            need - moves.gains[i]);
+        total += weights[i];
+      }
+      int i = pick(weights, random.nextLong(total));
+      types[level] = moves.types[i];
+      need -= moves.gains[i];
+      key = moves.keys[i];
+    }
+    states.dealTaverns(types, need, random);
+    return shape.encode(types, ranking);
+  }
+
+  private static int root(int ranking, int houseValue) {
+    return (ranking - 1) * (CompletionStates.CATEGORIES + 1) + houseValue;
+  }
+
+  /** The index of {@code weights} that {@code pick}, below their sum, falls into. */
+  private static int pick(long[] weights, long pick) {
+    int i = 0;
+    while (pick >= weights[i]) {
+      pick -= weights[i];
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * The number of ways to complete the state {@code key} at {@code level} so that the remaining
+   * cells add {@code need}.
+   */
+  private long completions(CompletionStates.Walk walk, int ranking, int houseValue, int level,
+      long key, int need) {
+    if (level == shape.cells) {
+      return states.endings(walk, houseValue, key, need);
+    }
+    int index = states.index(houseValue, level, key);
+    int lowest = states.lowest(index, ranking);
+    if (need < lowest || need > states.highest(index, ranking)) {
+      return 0;
+    }
+    long memoKey = (3L * index + ranking - 1) * SCORE_SPAN + need - lowest;
+    long completions = memo.get(memoKey);
+    if (completions >= 0) {
+      return completions;
+    }
+    CompletionStates.Moves moves = walk.moves[level];
+    int n = states.moves(walk, ranking, houseValue, level, key);
+    // The recursion reuses the moves of this level's scratch space, so copy them out first.
+    long[] keys = Arrays.copyOf(moves.keys, n);
+    int[] gains = Arrays.copyOf(moves.gains, n);
+    completions = 0;
+    for (int i = 0; i < n; i++) {
+      completions += completions(walk, ranking, houseValue, level + 1, keys[i], need - gains[i]);
+    }
+    memo.put(memoKey, completions);
+    return completions;
+  }
+
+  /**
+   * A map from non-negative keys to non-negative counts, open-addressed in two arrays. The
+   * standard tail classes memoise millions of counts, which boxed maps would hold in several times
+   * the memory.
+   */
+  private static final class CountTable {
+    private static final long FREE = -1;
+
+    private long[] keys = newKeys(1 << 10);
+    private long[] values = new long[keys.length];
+    private int size;
+
+    private static long[] newKeys(int capacity) {
+      long[] keys = new long[capacity];
+      Arrays.fill(keys, FREE);
+      return keys;
+    }
+
+    /** The count stored for {@code key}, or -1 if there is none. */
+    long get(long key) {
+      for (int slot = slot(key, keys.length); ; slot = (slot + 1) & (keys.length - 1)) {
+        if (keys[slot] == key) {
+          return values[slot];
+        }
+        if (keys[slot] == FREE) {
+          return -1;
+        }
+      }
+    }
+
+    void put(long key, long value) {
+      if (2 * (size + 1) > keys.length) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = newKeys(2 * oldKeys.length);
+        values = new long[keys.length];
+        for (int i = 0; i < oldKeys.length; i++) {
+          if (oldKeys[i] != FREE) {
+            insert(oldKeys[i], oldValues[i]);
+          }
+        }
+      }
+      insert(key, value);
+      size++;
+    }
+
+    private void insert(long key, long value) {
+      int slot = slot(key, keys.length);
+      while (keys[slot] != FREE) {
+        slot = (slot + 1) & (keys.length - 1);
+      }
+      keys[slot] = key;
+      values[slot] = value;
+    }
+
+    private static int slot(long key, int capacity) {
+      return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (capacity - 1);
+    }
+  }
+}
@@ -0,0 +1,597 @@
+package cities;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The states a board of a shape passes through as its cells are filled in row-major order, reduced
+ * to what the rest of its score depends on, with the lowest and highest score the remaining cells
+ * can add to each. {@link CompletionCounts} counts completions by score over these states.
+ * <p>
+ * A state holds:
+ * <ul>
+ * <li>for each column, the last filled cell while it still has an unfilled neighbour: a factory,
+ * a tavern, a house not yet next to a factory, an office not yet next to a tavern, a park with its
+ * group's label and size (sizes past 3 add a point per park, so they are capped at 3), or a shop
+ * constraining the cells below it;
+ * <li>the constraint a shop group puts on the rest of its row;
+ * <li>which categories are present, the office count modulo 6 and the number of taverns.
+ * </ul>
+ * The shop groups of {@link Board#getStoreGroupSizes} are followed by guessing, at each shop that
+ * starts a group, the length of its run to the right and, for a vertical group, its length down,
+ * and checking the guesses against the cells filled later; every board has exactly one consistent
+ * guess. A house away from factories scores the final number of categories present, so that number
+ * (the house value) is guessed up front as well and checked once the board is full. Taverns are
+ * counted as one type, and the four kinds are dealt out once the board is full from the number of
+ * ways each tavern score arises.
+ * <p>
+ * The reachable states are listed per house value and level, the number of cells filled, in sorted
+ * arrays of their encoded keys. The standard shape has about eleven million of them, found in
+ * under half a minute.
+ */
+final class CompletionStates {
+  static final int CATEGORIES = 5;
+  static final int TAVERN = GridScorer.FIRST_TAVERN;
+
+  // Frontier cell codes; shop constraints follow the park codes.
+  private static final int OTHER = 0;
+  private static final int FACTORY_CELL = 1;
+  private static final int TAVERN_CELL = 2;
+  private static final int LONELY_HOUSE = 3;
+  private static final int LONELY_OFFICE = 4;
+  private static final int FIRST_PARK = 5;
+  private static final int PARK_SIZES = 3;
+
+  // Row states: free, the next cell may not be a free shop, or a run of shops, see run().
+  private static final int FREE_ROW = 0;
+  private static final int ROW_END = 1;
+
+  private static final int[] PRESENT = new int[GridScorer.FIRST_TAVERN + 1];
+  private static final int OFFICE_PERIOD = 6;
+  private static final int[] TYPES = {GridScorer.FACTORY, GridScorer.HOUSE, GridScorer.OFFICE,
+      GridScorer.PARK, TAVERN};
+
+  private static final Map<BoardShape, CompletionStates> states = new ConcurrentHashMap<>();
+
+  static {
+    PRESENT[TAVERN] = 1;
+    PRESENT[GridScorer.FACTORY] = 2;
+    PRESENT[GridScorer.SHOP] = 4;
+    PRESENT[GridScorer.OFFICE] = 8;
+    PRESENT[GridScorer.PARK] = 16;
+  }
+
+  final BoardShape shape;
+  private final int rows;
+  private final int columns;
+  private final int cells;
+  /** The first code of a shop that the next k cells below must continue, for k from 0. */
+  private final int firstRun;
+  /** The first code of a shop with a non-shop among the next k cells below, for k from 1. */
+  private final int firstBreak;
+  private final int codes;
+  private final int rowStates;
+  /** The reachable states by house value and level, sorted. */
+  private final long[][][] keys = new long[CATEGORIES + 1][][];
+  /** The index of the first state of each house value and level among all states. */
+  private final int[][] firstIndex = new int[CATEGORIES + 1][];
+  /**
+   * The lowest and highest score a completion of each state adds, at {@code 3 * index + ranking -
+   * 1}; the lowest is above the highest for a state with no valid completion.
+   */
+  private final byte[] lowest;
+  private final byte[] highest;
+  private final long[][] binomials;
+  /** For each tavern count, the number of ways to deal out the kinds by tavern score. */
+  private final long[][] tavernScores;
+  private final int[] maxTavernScores;
+
+  private CompletionStates(BoardShape shape) {
+    Preconditions.checkArgument(shape.hasLongIds(), "Board ids of %s do not fit a long", shape);
+    this.shape = shape;
+    rows = shape.rows;
+    columns = shape.columns;
+    cells = shape.cells;
+    firstRun = FIRST_PARK + columns * PARK_SIZES;
+    firstBreak = firstRun + rows;
+    codes = firstBreak + rows - 1;
+    rowStates = 2 * columns;
+    for (int level = 0; level <= cells; level++) {
+      long limit = Long.MAX_VALUE / rowStates / OFFICE_PERIOD / (level + 1) / (1 << CATEGORIES);
+      for (int column = 0; column < columns; column++) {
+        if (isOpen(level, column)) {
+          Preconditions.checkArgument(limit >= codes, "%s is too wide to count", shape);
+          limit /= codes;
+        }
+      }
+    }
+    binomials = new long[cells + 1][cells + 1];
+    for (int n = 0; n <= cells; n++) {
+      binomials[n][0] = 1;
+      for (int k = 1; k <= n; k++) {
+        binomials[n][k] = binomials[n - 1][k - 1] + binomials[n - 1][k];
+      }
+    }
+    tavernScores = new long[cells + 1][];
+    maxTavernScores = new int[cells + 1];
+    for (int taverns = 0; taverns <= cells; taverns++) {
+      tavernScores[taverns] = new long[8 * taverns + 1];
+      for (int a = 0; a <= taverns; a++) {
+        for (int b = 0; a + b <= taverns; b++) {
+          for (int c = 0; a + b + c <= taverns; c++) {
+            int d = taverns - a - b - c;
+            int score = GridScorer.scoreTavernCounts(a, b, c, d);
+            tavernScores[taverns][score] += multinomial(a, b, c, d);
+            maxTavernScores[taverns] = Math.max(maxTavernScores[taverns], score);
+          }
+        }
+      }
+    }
+    Walk walk = new Walk();
+    int count = 0;
+    for (int houseValue = 0; houseValue <= CATEGORIES; houseValue++) {
+      keys[houseValue] = reachable(walk, houseValue);
+      firstIndex[houseValue] = new int[cells + 1];
+      for (int level = 0; level <= cells; level++) {
+        firstIndex[houseValue][level] = count;
+        count = Math.addExact(count, keys[houseValue][level].length);
+      }
+    }
+    lowest = new byte[3 * count];
+    highest = new byte[3 * count];
+    for (int houseValue = 0; houseValue <= CATEGORIES; houseValue++) {
+      for (int level = cells; level >= 0; level--) {
+        findRanges(walk, houseValue, level);
+      }
+    }
+  }
+
+  /** The states of {@code shape}, found on first use and kept. */
+  static CompletionStates of(BoardShape shape) {
+    return states.computeIfAbsent(shape, CompletionStates::new);
+  }
+
+  /** The index among all states of the reachable state {@code key}. */
+  int index(int houseValue, int level, long key) {
+    int position = Arrays.binarySearch(keys[houseValue][level], key);
+    Preconditions.checkArgument(position >= 0, "State %s is not reachable", key);
+    return firstIndex[houseValue][level] + position;
+  }
+
+  /** The lowest score a completion of the state at {@code index} adds under {@code ranking}. */
+  int lowest(int index, int ranking) {
+    return lowest[3 * index + ranking - 1];
+  }
+
+  /** The highest score a completion of the state at {@code index} adds under {@code ranking}. */
+  int highest(int index, int ranking) {
+    return highest[3 * index + ranking - 1];
+  }
+
+  /**
+   * The number of ways to deal out the taverns of the full board {@code key} so that they score
+   * {@code score}, or 0 if the board does not have the guessed house value.
+   */
+  long endings(Walk walk, int houseValue, long key, int score) {
+    State state = walk.states[cells];
+    decode(cells, key, state);
+    long[] ways = tavernScores[state.taverns];
+    return Integer.bitCount(state.present) == houseValue && score >= 0 && score < ways.length
+        ? ways[score]
+        : 0;
+  }
+
+  /**
+   * Replaces the tavern placeholders of {@code types} with kinds scoring {@code score}, each way
+   * equally likely.
+   */
+  void dealTaverns(int[] types, int score, SplittableRandom random) {
+    int taverns = 0;
+    for (int type : types) {
+      if (type == TAVERN) {
+        taverns++;
+      }
+    }
+    long pick = random.nextLong(tavernScores[taverns][score]);
+    for (int a = 0; a <= taverns; a++) {
+      for (int b = 0; a + b <= taverns; b++) {
+        for (int c = 0; a + b + c <= taverns; c++) {
+          int d = taverns - a - b - c;
+          if (GridScorer.scoreTavernCounts(a, b, c, d) != score) {
+            continue;
+          }
+          long ways = multinomial(a, b, c, d);
+          if (pick >= ways) {
+            pick -= ways;
+            continue;
+          }
+          // Every arrangement of these counts is equally likely.
+          int[] counts = {a, b, c, d};
+          int[] kinds = new int[taverns];
+          int filled = 0;
+          for (int kind = 0; kind < counts.length; kind++) {
+            for (int i = 0; i < counts[kind]; i++) {
+              kinds[filled++] = TAVERN + kind;
+            }
+          }
+          for (int i = kinds.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = kinds[i];
+            kinds[i] = kinds[j];
+            kinds[j] = swap;
+          }
+          int next = 0;
+          for (int cell = 0; cell < types.length; cell++) {
+            if (types[cell] == TAVERN) {
+              types[cell] = kinds[next++];
+            }
+          }
+          return;
+        }
+      }
+    }
+    throw new AssertionError();
+  }
+
+  private long multinomial(int a, int b, int c, int d) {
+    int n = a + b + c + d;
+    return binomials[n][a] * binomials[n - a][b] * binomials[n - a - b][c];
+  }
+
+  /** Lists the states reachable under {@code houseValue} by level. */
+  private long[][] reachable(Walk walk, int houseValue) {
+    long[][] levels = new long[cells + 1][];
+    levels[0] = new long[] {0};
+    for (int level = 0; level < cells; level++) {
+      long[] next = new long[16];
+      int size = 0;
+      for (long key : levels[level]) {
+        // States do not depend on the ranking.
+        int n = moves(walk, 1, houseValue, level, key);
+        if (size + n > next.length) {
+          next = Arrays.copyOf(next, Math.max(2 * next.length, size + n));
+        }
+        System.arraycopy(walk.moves[level].keys, 0, next, size, n);
+        size += n;
+      }
+      Arrays.sort(next, 0, size);
+      int distinct = 0;
+      for (int i = 0; i < size; i++) {
+        if (distinct == 0 || next[i] != next[distinct - 1]) {
+          next[distinct++] = next[i];
+        }
+      }
+      levels[level + 1] = Arrays.copyOf(next, distinct);
+    }
+    return levels;
+  }
+
+  /** Fills in the score ranges of the states at {@code level} from those of the next level. */
+  private void findRanges(Walk walk, int houseValue, int level) {
+    long[] levelKeys = keys[houseValue][level];
+    int[] low = new int[3];
+    int[] high = new int[3];
+    for (int position = 0; position < levelKeys.length; position++) {
+      Arrays.fill(low, Byte.MAX_VALUE);
+      Arrays.fill(high, Byte.MIN_VALUE);
+      if (level == cells) {
+        State state = walk.states[level];
+        decode(level, levelKeys[position], state);
+        if (Integer.bitCount(state.present) == houseValue) {
+          // Every tavern scores at least 1.
+          Arrays.fill(low, state.taverns);
+          Arrays.fill(high, maxTavernScores[state.taverns]);
+        }
+      } else {
+        Moves moves = walk.moves[level];
+        int n = moves(walk, 1, houseValue, level, levelKeys[position]);
+        for (int i = 0; i < n; i++) {
+          int child = index(houseValue, level + 1, moves.keys[i]);
+          for (int ranking = 1; ranking <= 3; ranking++) {
+            if (lowest(child, ranking) > highest(child, ranking)) {
+              continue;
+            }
+            // The moves were listed for ranking 1.
+            int gain = moves.gains[i] + (moves.types[i] == GridScorer.FACTORY
+                ? GridScorer.factoryMultiplier(ranking) - GridScorer.factoryMultiplier(1)
+                : 0);
+            low[ranking - 1] = Math.min(low[ranking - 1], lowest(child, ranking) + gain);
+            high[ranking - 1] = Math.max(high[ranking - 1], highest(child, ranking) + gain);
+          }
+        }
+      }
+      int index = firstIndex[houseValue][level] + position;
+      for (int ranking = 1; ranking <= 3; ranking++) {
+        Preconditions.checkState(low[ranking - 1] > Byte.MIN_VALUE
+            && high[ranking - 1] < Byte.MAX_VALUE, "%s scores do not fit a byte", shape);
+        lowest[3 * index + ranking - 1] = (byte) low[ranking - 1];
+        highest[3 * index + ranking - 1] = (byte) high[ranking - 1];
+      }
+    }
+  }
+
+  /** Scratch space for one pass over the cells: a state and a list of moves per level. */
+  final class Walk {
+    final State[] states = new State[cells + 1];
+    final State next = new State();
+    final Moves[] moves = new Moves[cells];
+
+    Walk() {
+      for (int level = 0; level <= cells; level++) {
+        states[level] = new State();
+      }
+      for (int level = 0; level < cells; level++) {
+        moves[level] = new Moves();
+      }
+    }
+  }
+
+  private final class State {
+    final int[] codes = new int[columns];
+    int row;
+    int offices;
+    int taverns;
+    int present;
+
+    void copyTo(State other) {
+      System.arraycopy(codes, 0, other.codes, 0, columns);
+      other.row = row;
+      other.offices = offices;
+      other.taverns = taverns;
+      other.present = present;
+    }
+  }
+
+  final class Moves {
+    // A shop starting a group has a move per guess of its lengths.
+    final int capacity = TYPES.length + columns * (rows + 1);
+    final long[] keys = new long[capacity];
+    final int[] gains = new int[capacity];
+    final int[] types = new int[capacity];
+  }
+
+  /**
+   * Whether the frontier at {@code level} may hold something other than {@link #OTHER} in
+   * {@code column}: above the next cell and to its right, the previous row; to its left, the
+   * current row, except in the last row, where only the cell just filled still has a neighbour to
+   * come.
+   */
+  private boolean isOpen(int level, int column) {
+    int row = level / columns;
+    int next = level % columns;
+    if (column >= next) {
+      return row >= 1 && row < rows;
+    }
+    return row < rows - 1 || column == next - 1;
+  }
+
+  private long encode(int level, State state) {
+    long key = 0;
+    for (int column = 0; column < columns; column++) {
+      if (isOpen(level, column)) {
+        key = key * codes + state.codes[column];
+      }
+    }
+    key = key * rowStates + state.row;
+    key = key * OFFICE_PERIOD + state.offices;
+    key = key * (level + 1) + state.taverns;
+    return key * (1 << CATEGORIES) + state.present;
+  }
+
+  private void decode(int level, long key, State state) {
+    state.present = (int) (key % (1 << CATEGORIES));
+    key /= 1 << CATEGORIES;
+    state.taverns = (int) (key % (level + 1));
+    key /= level + 1;
+    state.offices = (int) (key % OFFICE_PERIOD);
+    key /= OFFICE_PERIOD;
+    state.row = (int) (key % rowStates);
+    key /= rowStates;
+    for (int column = columns - 1; column >= 0; column--) {
+      if (isOpen(level, column)) {
+        state.codes[column] = (int) (key % codes);
+        key /= codes;
+      } else {
+        state.codes[column] = OTHER;
+      }
+    }
+  }
+
+  /** A row state for the next {@code length} cells being shops, already in a group if used. */
+  private static int run(int length, boolean used) {
+    return 2 * length + (used ? 1 : 0);
+  }
+
+  private static boolean isPark(int code, int firstRun) {
+    return code >= FIRST_PARK && code < firstRun;
+  }
+
+  private static int park(int label, int size) {
+    return FIRST_PARK + label * PARK_SIZES + Math.min(size, PARK_SIZES) - 1;
+  }
+
+  /**
+   * Lists the ways to fill the cell at {@code level} after the prefix {@code key}, with the score
+   * each adds and the state it leads to, into {@code walk.moves[level]}, and returns how many
+   * there are.
+   */
+  int moves(Walk walk, int ranking, int houseValue, int level, long key) {
+    State state = walk.states[level];
+    decode(level, key, state);
+    Moves moves = walk.moves[level];
+    int column = level % columns;
+    int up = state.codes[column];
+    int below = rows - 1 - level / columns;
+    // A shop above continuing down, or needing a non-shop among the next cells down.
+    int continues = up >= firstRun && up < firstBreak ? up - firstRun : -1;
+    int window = up >= firstBreak ? up - firstBreak + 1 : Integer.MAX_VALUE;
+    int run = state.row >= 2 ? state.row / 2 : 0;
+    boolean used = state.row >= 2 && (state.row & 1) == 1;
+    int n = 0;
+    if (continues >= 1) {
+      // The cell is part of a vertical shop group, which is free of the row's constraints.
+      if (run == 0) {
+        n = add(walk, houseValue, level, n, GridScorer.SHOP, 0, firstRun + continues - 1, FREE_ROW);
+      }
+      return n;
+    }
+    if (run == 0) {
+      for (int type : TYPES) {
+        int gain = type == GridScorer.FACTORY ? GridScorer.factoryMultiplier(ranking) : 0;
+        n = add(walk, houseValue, level, n, type, gain, -1, FREE_ROW);
+      }
+    }
+    if (continues == 0 || window == 1 || state.row == ROW_END) {
+      return n;
+    }
+    int windowBelow = window == Integer.MAX_VALUE ? window : window - 1;
+    if (used) {
+      int code = windowBelow == Integer.MAX_VALUE ? OTHER : firstBreak + windowBelow - 1;
+      return add(walk, houseValue, level, n, GridScorer.SHOP, 0, code,
+          run > 1 ? run(run - 1, true) : ROW_END);
+    }
+    // The shop starts a group: guess the free shops to its right, then the group's direction.
+    int minLength = run > 0 ? run : 1;
+    int maxLength = run > 0 ? run : columns - column;
+    for (int length = minLength; length <= maxLength; length++) {
+      int horizontal = length <= below ? Math.min(windowBelow, length) : windowBelow;
+      n = add(walk, houseValue, level, n, GridScorer.SHOP, GridScorer.scoreStoreGroup(length),
+          horizontal == Integer.MAX_VALUE ? OTHER : firstBreak + horizontal - 1,
+          length > 1 ? run(length - 1, true) : ROW_END);
+      for (int down = length + 1; down <= below + 1 && down <= windowBelow; down++) {
+        n = add(walk, houseValue, level, n, GridScorer.SHOP, GridScorer.scoreStoreGroup(down),
+            firstRun + down - 1, length > 1 ? run(length - 1, false) : ROW_END);
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Adds the move filling the cell at {@code level} with {@code type}, unless it rules out the
+   * guessed house value. {@code shopCode} is the frontier code of a shop; {@code row} the next
+   * row state.
+   */
+  private int add(Walk walk, int houseValue, int level, int n, int type, int gain, int shopCode,
+      int row) {
+    State state = walk.states[level];
+    State next = walk.next;
+    state.copyTo(next);
+    int column = level % columns;
+    boolean lastRow = level / columns == rows - 1;
+    int up = state.codes[column];
+    int left = column > 0 ? state.codes[column - 1] : OTHER;
+    next.present |= PRESENT[type];
+    if (Integer.bitCount(next.present) > houseValue
+        || Integer.bitCount(next.present) + cells - level - 1 < houseValue) {
+      return n;
+    }
+    int code;
+    if (type == GridScorer.FACTORY) {
+      code = FACTORY_CELL;
+      if (left == LONELY_HOUSE) {
+        gain++;
+        next.codes[column - 1] = OTHER;
+      }
+    } else if (type == GridScorer.HOUSE) {
+      boolean nearFactory = left == FACTORY_CELL || up == FACTORY_CELL;
+      code = nearFactory ? OTHER : LONELY_HOUSE;
+      gain += nearFactory ? 1 : 0;
+    } else if (type == GridScorer.OFFICE) {
+      gain += next.offices + 1;
+      next.offices = (next.offices + 1) % OFFICE_PERIOD;
+      boolean nearTavern = left == TAVERN_CELL || up == TAVERN_CELL;
+      code = nearTavern ? OTHER : LONELY_OFFICE;
+      gain += nearTavern ? 1 : 0;
+    } else if (type == TAVERN) {
+      code = TAVERN_CELL;
+      next.taverns++;
+      if (left == LONELY_OFFICE) {
+        gain++;
+        next.codes[column - 1] = OTHER;
+      }
+    } else if (type == GridScorer.PARK) {
+      code = joinPark(next, column, left, up);
+      gain += code >> 16;
+      code &= 0xffff;
+    } else {
+      code = shopCode;
+    }
+    // The cell above leaves the frontier.
+    if (up == LONELY_HOUSE) {
+      gain += type == GridScorer.FACTORY ? 1 : houseValue;
+    } else if (up == LONELY_OFFICE && type == TAVERN) {
+      gain++;
+    }
+    if (lastRow && code == firstRun) {
+      code = OTHER;
+    }
+    next.codes[column] = code;
+    if (lastRow) {
+      // Cells of the last row have no neighbour to come once the cell to their right is filled.
+      if (column > 0) {
+        gain += next.codes[column - 1] == LONELY_HOUSE ? houseValue : 0;
+        next.codes[column - 1] = OTHER;
+      }
+      if (column == columns - 1) {
+        gain += code == LONELY_HOUSE ? houseValue : 0;
+        next.codes[column] = OTHER;
+      }
+    }
+    next.row = column == columns - 1 ? FREE_ROW : row;
+    relabelParks(next);
+    Moves moves = walk.moves[level];
+    moves.keys[n] = encode(level + 1, next);
+    moves.gains[n] = gain;
+    moves.types[n] = type;
+    return n + 1;
+  }
+
+  /**
+   * Puts a park in {@code column}, joining the groups of its left and upper neighbours, and returns
+   * its code with the score it adds in the high bits.
+   */
+  private int joinPark(State next, int column, int left, int up) {
+    int leftLabel = isPark(left, firstRun) ? (left - FIRST_PARK) / PARK_SIZES : -1;
+    int upLabel = isPark(up, firstRun) ? (up - FIRST_PARK) / PARK_SIZES : -1;
+    int leftSize = leftLabel >= 0 ? (left - FIRST_PARK) % PARK_SIZES + 1 : 0;
+    int upSize = upLabel >= 0 ? (up - FIRST_PARK) % PARK_SIZES + 1 : 0;
+    if (leftLabel == upLabel) {
+      upSize = 0;
+    }
+    int label = leftLabel >= 0 ? leftLabel : upLabel >= 0 ? upLabel : columns - 1;
+    int size = leftSize + upSize + 1;
+    // Past size 3 a group grows by a point per park, so capped sizes give the right differences.
+    int gain = GridScorer.scoreParkGroup(size) - GridScorer.scoreParkGroup(leftSize)
+        - GridScorer.scoreParkGroup(upSize);
+    for (int c = 0; c < columns; c++) {
+      int code = next.codes[c];
+      if (c != column && isPark(code, firstRun)) {
+        int codeLabel = (code - FIRST_PARK) / PARK_SIZES;
+        if (codeLabel == leftLabel || codeLabel == upLabel) {
+          next.codes[c] = park(label, size);
+        }
+      }
+    }
+    return gain << 16 | park(label, size);
+  }
+
+  /** Numbers the park groups of the frontier from 0 in column order. */
+  private void relabelParks(State next) {
+    int[] labels = new int[columns];
+    int used = 0;
+    for (int c = 0; c < columns; c++) {
+      int code = next.codes[c];
+      if (isPark(code, firstRun)) {
+        int label = (code - FIRST_PARK) / PARK_SIZES;
+        if (labels[label] == 0) {
+          labels[label] = ++used;
+        }
+        next.codes[c] = park(labels[label] - 1, (code - FIRST_PARK) % PARK_SIZES + 1);
+      }
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package cities;
+
+import java.util.SplittableRandom;
+
+import com.google.common.base.Preconditions;
+
+import cities.Tile.Type;
+
+/**
+ * Decides what a simulated player takes from a hand and where it goes. A player makes two
+ * decisions per turn: one tile for the city on their left and one for the city on their right.
+ * <p>
+ * Policies are shared between games running on different threads, so implementations must be
+ * stateless; all randomness has to come from the supplied generator to keep games reproducible.
+ */
+interface DraftPolicy {
+
+  /**
+   * Chooses a tile from {@code hand[0..handSize)} to place into {@code city}.
+   *
+   * @return the index into {@code hand} of the chosen tile
+   */
+  int chooseTile(City city, byte[] hand, int handSize, SplittableRandom random);
+
+  /**
+   * Chooses an empty cell of {@code city} for a tile of the given {@link Type} ordinal.
+   *
+   * @return the row-major index of the chosen cell
+   */
+  int chooseCell(City city, int tile, SplittableRandom random);
+
+  /** Takes a random tile and puts it in a random empty cell. */
+  static DraftPolicy random() {
+    return new DraftPolicy() {
+      @Override
+      public int chooseTile(City city, byte[] hand, int handSize, SplittableRandom random) {
+        return random.nextInt(handSize);
+      }
+
+      @Override
+      public int chooseCell(City city, int tile, SplittableRandom random) {
+        int skip = random.nextInt(City.SIZE - city.placed());
+        for (int cell = 0; cell < City.SIZE; cell++) {
+          if (city.isEmpty(cell) && skip-- == 0) {
+            return cell;
+          }
+        }
+        throw new IllegalStateException("The city is full!");
+      }
+    };
+  }
+
+  /**
+   * Takes the most preferred tile type in the hand and puts it next to a tile of the same type
+   * when possible, so parks and shops tend to end up connected.
+   */
+  static DraftPolicy preferring(Type... preferences) {
+    Preconditions.checkArgument(preferences.length > 0, "At least one preference is required!");
+    int[] rankByType = new int[Type.values().length];
+    for (int i = 0; i < rankByType.length; i++) {
+      rankByType[i] = preferences.length;
+    }
+    for (int i = preferences.length - 1; i >= 0; i--) {
+      rankByType[preferences[i].ordinal()] = i;
+    }
+    return new DraftPolicy() {
+      @Override
+      public int chooseTile(City city, byte[] hand, int handSize, SplittableRandom random) {
+        int best = 0;
+        for (int i = 1; i < handSize; i++) {
+          if (rankByType[hand[i]] < rankByType[hand[best]]) {
+            best = i;
+          }
+        }
+        return best;
+      }
+
+      @Override
+      public int chooseCell(City city, int tile, SplittableRandom random) {
+        int firstEmpty = City.EMPTY;
+        for (int cell = 0; cell < City.SIZE; cell++) {
+          if (city.isEmpty(cell)) {
+            if (city.isAdjacentTo(cell, tile)) {
+              return cell;
+            }
+            if (firstEmpty == City.EMPTY) {
+              firstEmpty = cell;
+            }
+          }
+        }
+        Preconditions.checkState(firstEmpty != City.EMPTY, "The city is full!");
+        return firstEmpty;
+      }
+    };
+  }
+}
@@ -0,0 +1,205 @@
+package cities;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.LongStream;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import cities.Tile.Type;
+
+/**
+ * Simulates full games of drafting and placing tiles so that policies can be compared over a large
+ * number of games.
+ * <p>
+ * Each of the 3 to 7 players sits between two cities: player {@code i} builds city {@code i} on
+ * their left and city {@code i + 1} (wrapping around) on their right. A game is played in three
+ * rounds. At the start of a round every player is dealt a hand from the {@link TileBag}; on each
+ * turn every player, in seat order, takes one tile from their hand for each of their two cities and
+ * places it, then hands are passed (left in rounds one and three, right in round two). The last
+ * tile of each hand is discarded. Hands of 7, 5 and 7 tiles give 3, 2 and 3 turns, so every city
+ * is complete after 8 turns.
+ * <p>
+ * Finished cities are scored as {@link Board}s, with factory rankings computed across all cities of
+ * the game. A player's score is the lower of their two cities; ties for the win are broken by the
+ * higher city, and players still tied share the win.
+ * <p>
+ * Games run in parallel on a {@link ForkJoinPool}. Each chunk of games handed to a worker gets its
+ * own {@link Game} (bag, hands, cities and tallies), reused for every game of the chunk and dropped
+ * with it, and cities are scored from reused cell masks rather than as {@link Board}s. Game
+ * {@code n} always draws from a generator seeded by {@code (seed, n)}, so results do not depend on
+ * how games are scheduled.
+ */
+public class GameSimulator {
+  static final int MIN_PLAYERS = 3;
+  static final int MAX_PLAYERS = 7;
+  private static final int[] HAND_SIZES = {7, 5, 7};
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  private final List<DraftPolicy> policies;
+  private final int[] bagCounts;
+  private final long seed;
+
+  GameSimulator(long seed, List<DraftPolicy> policies) {
+    this(seed, policies, TileBag.DEFAULT_COUNTS);
+  }
+
+  GameSimulator(long seed, List<DraftPolicy> policies, int[] bagCounts) {
+    Preconditions.checkArgument(
+        policies.size() >= MIN_PLAYERS && policies.size() <= MAX_PLAYERS,
+        "There must be between %s and %s players!", MIN_PLAYERS, MAX_PLAYERS);
+    int tilesNeeded = 0;
+    for (int handSize : HAND_SIZES) {
+      tilesNeeded += handSize * policies.size();
+    }
+    Preconditions.checkArgument(Arrays.stream(bagCounts).sum() >= tilesNeeded,
+        "The bag must hold at least %s tiles for %s players!", tilesNeeded, policies.size());
+    this.policies = ImmutableList.copyOf(policies);
+    this.bagCounts = bagCounts.clone();
+    this.seed = seed;
+  }
+
+  /** Plays games {@code [0, numGames)} on the common fork/join pool. */
+  SimulationResult simulate(long numGames) {
+    return simulate(0, numGames);
+  }
+
+  /** Plays games {@code [firstGame, firstGame + numGames)} on the common fork/join pool. */
+  SimulationResult simulate(long firstGame, long numGames) {
+    // collect makes one container per chunk, so each chunk plays its games on its own Game.
+    return LongStream.range(firstGame, firstGame + numGames).parallel()
+        .collect(this::newGame, Game::play, (game, other) -> game.result.merge(other.result))
+        .result;
+  }
+
+  /** Plays a single game on the calling thread and returns its final city scores. */
+  int[] playOne(long game) {
+    Game state = newGame();
+    state.play(game);
+    return state.cityScores.clone();
+  }
+
+  private Game newGame() {
+    return new Game(seed, policies, bagCounts);
+  }
+
+  static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /** Mutable state for one game at a time, and the tallies of the games played on it. */
+  private static final class Game {
+    final long seed;
+    final List<DraftPolicy> policies;
+    final TileBag bag;
+    final City[] cities;
+    final byte[][] hands;
+    final byte[][] passedHands;
+    final int[] cityScores;
+    final int[] factoryCounts;
+    final int[] masks = new int[BoardShape.TYPES];
+    final SimulationResult result;
+
+    Game(long seed, List<DraftPolicy> policies, int[] bagCounts) {
+      this.seed = seed;
+      this.policies = policies;
+      int players = policies.size();
+      bag = new TileBag(bagCounts);
+      cities = new City[players];
+      hands = new byte[players][HAND_SIZES[0]];
+      passedHands = new byte[players][HAND_SIZES[0]];
+      for (int i = 0; i < players; i++) {
+        cities[i] = new City();
+      }
+      cityScores = new int[players];
+      factoryCounts = new int[players];
+      result = new SimulationResult(players);
+    }
+
+    void play(long game) {
+      SplittableRandom random = new SplittableRandom(mix(seed + GOLDEN_GAMMA * (game + 1)));
+      int players = cities.length;
+      bag.refill();
+      for (City city : cities) {
+        city.clear();
+      }
+      for (int round = 0; round < HAND_SIZES.length; round++) {
+        int handSize = HAND_SIZES[round];
+        int direction = round % 2 == 0 ? 1 : players - 1;
+        for (byte[] hand : hands) {
+          for (int i = 0; i < handSize; i++) {
+            hand[i] = (byte) bag.draw(random);
+          }
+        }
+        for (; handSize > 1; handSize -= 2) {
+          for (int player = 0; player < players; player++) {
+            DraftPolicy policy = policies.get(player);
+            takeAndPlace(policy, cities[player], hands[player], handSize, random);
+            takeAndPlace(policy, cities[(player + 1) % players], hands[player], handSize - 1,
+                random);
+          }
+          for (int player = 0; player < players; player++) {
+            System.arraycopy(hands[player], 0, passedHands[(player + direction) % players], 0,
+                handSize - 2);
+          }
+          for (int player = 0; player < players; player++) {
+            System.arraycopy(passedHands[player], 0, hands[player], 0, handSize - 2);
+          }
+        }
+      }
+      scoreCities();
+      result.record(cityScores);
+    }
+
+    private void takeAndPlace(DraftPolicy policy, City city, byte[] hand, int handSize,
+        SplittableRandom random) {
+      int index = policy.chooseTile(city, hand, handSize, random);
+      Preconditions.checkState(index >= 0 && index < handSize, "Chose tile %s of %s", index,
+          handSize);
+      int tile = hand[index];
+      hand[index] = hand[handSize - 1];
+      int cell = policy.chooseCell(city, tile, random);
+      city.place(cell, tile);
+    }
+
+    private void scoreCities() {
+      int most = 0;
+      for (int i = 0; i < cities.length; i++) {
+        factoryCounts[i] = cities[i].count(Type.FACTORY);
+        most = Math.max(most, factoryCounts[i]);
+      }
+      int secondMost = -1;
+      for (int count : factoryCounts) {
+        if (count < most) {
+          secondMost = Math.max(secondMost, count);
+        }
+      }
+      for (int i = 0; i < cities.length; i++) {
+        int ranking = factoryCounts[i] == most ? 1 : factoryCounts[i] == secondMost ? 2 : 3;
+        cityScores[i] = cities[i].score(ranking, masks);
+      }
+    }
+  }
+
+  public static void main(String[] args) {
+    int players = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    long numGames = args.length > 1 ? Long.parseLong(args[1]) : 100_000;
+    long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+    ImmutableList.Builder<DraftPolicy> policies = ImmutableList.builder();
+    policies.add(DraftPolicy.preferring(Type.PARK, Type.SHOP, Type.OFFICE));
+    for (int i = 1; i < players; i++) {
+      policies.add(DraftPolicy.random());
+    }
+    long start = System.nanoTime();
+    SimulationResult result = new GameSimulator(seed, policies.build()).simulate(numGames);
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.err.println(result);
+    System.err.println(String.format("%d games in %.1fs (%.0f games/s)", result.getGames(), seconds,
+        result.getGames() / seconds));
+  }
+}
@@ -0,0 +1,99 @@
+package cities;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assert_;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import cities.Tile.Type;
+
+public class GameSimulatorTests {
+
+  private static GameSimulator simulator(long seed, int players) {
+    ImmutableList.Builder<DraftPolicy> policies = ImmutableList.builder();
+    policies.add(DraftPolicy.preferring(Type.PARK, Type.SHOP));
+    for (int i = 1; i < players; i++) {
+      policies.add(DraftPolicy.random());
+    }
+    return new GameSimulator(seed, policies.build());
+  }
+
+  @Test
+  public void sameSeedGivesSameResults() {
+    assertThat(simulator(42, 4).simulate(200)).isEqualTo(simulator(42, 4).simulate(200));
+  }
+
+  @Test
+  public void differentSeedsGiveDifferentGames() {
+    assertThat(Arrays.equals(simulator(1, 5).playOne(0), simulator(2, 5).playOne(0))).isFalse();
+  }
+
+  @Test
+  public void parallelResultsMatchGamesPlayedOneAtATime() {
+    GameSimulator simulator = simulator(7, 3);
+    SimulationResult expected = new SimulationResult(3);
+    for (long game = 0; game < 50; game++) {
+      expected.record(simulator.playOne(game));
+    }
+    assertThat(simulator.simulate(50)).isEqualTo(expected);
+  }
+
+  @Test
+  public void supportsThreeToSevenPlayers() {
+    for (int players = GameSimulator.MIN_PLAYERS; players <= GameSimulator.MAX_PLAYERS; players++) {
+      SimulationResult result = simulator(players, players).simulate(20);
+      assertThat(result.getGames()).isEqualTo(20L);
+      assertThat(Arrays.stream(result.getScoreHistogram()).sum()).isEqualTo(20L * players);
+    }
+  }
+
+  @Test
+  public void tooManyPlayersNotAllowed() {
+    try {
+      simulator(0, 8);
+      assert_().fail();
+    } catch (IllegalArgumentException expected) {
+      // Expected exception.
+    }
+  }
+
+  @Test
+  public void tileBagDrawsEveryTileOnce() {
+    TileBag bag = new TileBag(new int[] {1, 2, 0, 0, 0, 0, 0, 0, 3});
+    SplittableRandom random = new SplittableRandom(3);
+    int[] drawn = new int[Type.values().length];
+    while (bag.remaining() > 0) {
+      drawn[bag.draw(random)]++;
+    }
+    assertThat(drawn).asList().containsExactly(1, 2, 0, 0, 0, 0, 0, 0, 3).inOrder();
+  }
+
+  @Test
+  public void finishedCityScoresAsBoard() {
+    City city = new City();
+    for (int cell = 0; cell < City.SIZE; cell++) {
+      city.place(cell, Type.PARK.ordinal());
+    }
+    assertThat(city.toBoard(1).getScore()).isEqualTo(25);
+  }
+
+  @Test
+  public void cityScoresMatchBoard() {
+    SplittableRandom random = new SplittableRandom(26);
+    City city = new City();
+    int[] masks = new int[BoardShape.TYPES];
+    for (int i = 0; i < 2_000; i++) {
+      city.clear();
+      for (int cell = 0; cell < City.SIZE; cell++) {
+        city.place(cell, random.nextInt(Type.values().length));
+      }
+      int ranking = 1 + random.nextInt(3);
+      assertThat(city.score(ranking, masks)).isEqualTo(city.toBoard(ranking).getScore());
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package cities;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Measures how scoring and enumeration cost grow with board area. For each shape it reports the
+ * time to build the shape's tables, the rate of {@link Board#getScore()} and of
+ * {@link GridScorer} on random boards, the rate of decoding and scoring a contiguous id range, and
+ * the time a single core would need to enumerate every board at that rate.
+ * <p>
+ * Usage: {@code GridBenchmark [ROWSxCOLUMNS ...]}, defaulting to 3x3, 3x4, 4x4, 4x5 and 5x5.
+ */
+final class GridBenchmark {
+  private static final int BOARD_SAMPLES = 20_000;
+  private static final int SCORER_SAMPLES = 2_000_000;
+  private static final int ROUNDS = 3;
+
+  private GridBenchmark() {}
+
+  public static void main(String[] args) {
+    List<BoardShape> shapes = new ArrayList<>();
+    for (String arg : args.length > 0 ? args : new String[] {"3x3", "3x4", "4x4", "4x5", "5x5"}) {
+      String[] dimensions = arg.split("x");
+      shapes.add(BoardShape.of(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1])));
+    }
+    System.out.println(String.format("%-6s %6s %10s %14s %14s %14s %12s", "shape", "cells",
+        "tables ms", "Board/s", "GridScorer/s", "ids/s", "all boards"));
+    for (BoardShape shape : shapes) {
+      long start = System.nanoTime();
+      GridScorer scorer = GridScorer.of(shape);
+      double tablesMillis = (System.nanoTime() - start) / 1e6;
+      double boardRate = 0;
+      double scorerRate = 0;
+      double idRate = 0;
+      // The first rounds warm up the JIT; keep the best.
+      for (int round = 0; round < ROUNDS; round++) {
+        boardRate = Math.max(boardRate, boardRate(shape));
+        scorerRate = Math.max(scorerRate, scorerRate(scorer));
+        if (shape.hasLongIds()) {
+          idRate = Math.max(idRate, idRate(scorer));
+        }
+      }
+      double enumerationRate = shape.hasLongIds() ? idRate : scorerRate;
+      System.out.println(String.format("%-6s %6d %10.1f %14.0f %14.0f %14s %12s", shape,
+          shape.cells, tablesMillis, boardRate, scorerRate,
+          shape.hasLongIds() ? String.format("%.0f", idRate) : "n/a",
+          duration(new BigDecimal(shape.exactBoardCount())
+              .divide(BigDecimal.valueOf(enumerationRate), MathContext.DECIMAL64))));
+    }
+  }
+
+  private static double boardRate(BoardShape shape) {
+    SplittableRandom random = new SplittableRandom(shape.cells);
+    int[] types = new int[shape.cells];
+    long checksum = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < BOARD_SAMPLES; i++) {
+      randomTypes(random, types);
+      checksum += BoardGenerator.generateBoard(shape, types, 1 + i % 3).getScore();
+    }
+    return rate(BOARD_SAMPLES, start, checksum);
+  }
+
+  private static double scorerRate(GridScorer scorer) {
+    SplittableRandom random = new SplittableRandom(scorer.shape.cells);
+    int[] types = new int[scorer.shape.cells];
+    int[] masks = new int[BoardShape.TYPES];
+    long checksum = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < SCORER_SAMPLES; i++) {
+      randomTypes(random, types);
+      checksum += scorer.score(types, 1 + i % 3, masks);
+    }
+    return rate(SCORER_SAMPLES, start, checksum);
+  }
+
+  private static double idRate(GridScorer scorer) {
+    int[] types = new int[scorer.shape.cells];
+    int[] masks = new int[BoardShape.TYPES];
+    long first = scorer.shape.boardCount() / 2;
+    long last = Math.min(first + SCORER_SAMPLES, scorer.shape.boardCount());
+    long checksum = 0;
+    long start = System.nanoTime();
+    for (long id = first; id < last; id++) {
+      checksum += scorer.scoreId(id, types, masks);
+    }
+    return rate(last - first, start, checksum);
+  }
+
+  private static void randomTypes(SplittableRandom random, int[] types) {
+    for (int cell = 0; cell < types.length; cell++) {
+      types[cell] = random.nextInt(BoardShape.TYPES);
+    }
+  }
+
+  private static double rate(long count, long startNanos, long checksum) {
+    long elapsed = System.nanoTime() - startNanos;
+    // Using the checksum stops the JIT from discarding the work being timed.
+    if (checksum == Long.MIN_VALUE) {
+      System.out.println(checksum);
+    }
+    return count * 1e9 / elapsed;
+  }
+
+  private static String duration(BigDecimal seconds) {
+    if (seconds.compareTo(BigDecimal.valueOf(120)) < 0) {
+      return String.format("%.1f s", seconds.doubleValue());
+    } else if (seconds.compareTo(BigDecimal.valueOf(3600)) < 0) {
+      return String.format("%.1f min", seconds.doubleValue() / 60);
+    } else if (seconds.compareTo(BigDecimal.valueOf(2 * 86400)) < 0) {
+      return String.format("%.1f h", seconds.doubleValue() / 3600);
+    } else if (seconds.compareTo(BigDecimal.valueOf(365 * 86400)) < 0) {
+      return String.format("%.1f d", seconds.doubleValue() / 86400);
+    }
+    BigDecimal years = seconds.divide(BigDecimal.valueOf(365L * 86400), MathContext.DECIMAL64);
+    return String.format("%.2g y", years.doubleValue());
+  }
+}
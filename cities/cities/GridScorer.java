@@ -0,0 +1,227 @@
+package cities;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cities.Tile.Type;
+
+/**
+ * Scores boards of any {@link BoardShape} with the same rules as {@link Board}, using cell masks:
+ * a mask has bit {@code i} set for cell {@code i}. This is the one copy of the rules outside
+ * {@link Board}; {@link PackedBoardScorer} is the standard shape's scorer behind static methods.
+ * <p>
+ * Park and shop scores depend only on the mask of park or shop cells; they are tabulated when a
+ * shape has at most {@value #MAX_TABLE_CELLS} cells, and computed per board otherwise.
+ */
+final class GridScorer {
+  static final int MAX_TABLE_CELLS = 20;
+
+  static final int FACTORY = Type.FACTORY.ordinal();
+  static final int HOUSE = Type.HOUSE.ordinal();
+  static final int OFFICE = Type.OFFICE.ordinal();
+  static final int PARK = Type.PARK.ordinal();
+  static final int SHOP = Type.SHOP.ordinal();
+  static final int FIRST_TAVERN = Type.TAVERN_BED.ordinal();
+
+  private static final Map<BoardShape, GridScorer> scorers = new ConcurrentHashMap<>();
+
+  final BoardShape shape;
+  private final byte[] parkScores;
+  private final byte[] shopScores;
+
+  private GridScorer(BoardShape shape) {
+    this.shape = shape;
+    if (shape.cells <= MAX_TABLE_CELLS) {
+      parkScores = new byte[shape.fullMask + 1];
+      shopScores = new byte[shape.fullMask + 1];
+      for (int mask = 0; mask <= shape.fullMask; mask++) {
+        parkScores[mask] = (byte) computeParkScore(mask);
+        shopScores[mask] = (byte) computeShopScore(mask);
+      }
+    } else {
+      parkScores = shopScores = null;
+    }
+  }
+
+  static GridScorer of(BoardShape shape) {
+    return scorers.computeIfAbsent(shape, GridScorer::new);
+  }
+
+  static int scoreParkGroup(int size) {
+    switch (size) {
+      case 0:
+        return 0;
+      case 1:
+        return 2;
+      case 2:
+        return 8;
+      case 3:
+        return 12;
+      default:
+        return size + 9;
+    }
+  }
+
+  static int scoreStoreGroup(int size) {
+    switch (size) {
+      case 0:
+        return 0;
+      case 1:
+        return 2;
+      case 2:
+        return 5;
+      case 3:
+        return 10;
+      default:
+        return 16;
+    }
+  }
+
+  static int scoreOfficeCount(int offices) {
+    int remaining = offices % 6;
+    return (offices / 6) * 21 + (remaining * (remaining + 1)) / 2;
+  }
+
+  /** Scores taverns from the count of each of the four kinds; see {@link Board#scoreTaverns}. */
+  static int scoreTavernCounts(int a, int b, int c, int d) {
+    // Sort descending with a small sorting network; the largest count only ever completes sets of
+    // one, the next of two, and so on, giving 1, 3, 5 and 8 points per tile.
+    int t;
+    if (a < b) { t = a; a = b; b = t; }
+    if (c < d) { t = c; c = d; d = t; }
+    if (a < c) { t = a; a = c; c = t; }
+    if (b < d) { t = b; b = d; d = t; }
+    if (b < c) { t = b; b = c; c = t; }
+    return a + 3 * b + 5 * c + 8 * d;
+  }
+
+  static int factoryMultiplier(int factoryRanking) {
+    return factoryRanking == 1 ? 4 : factoryRanking == 2 ? 3 : 2;
+  }
+
+  private int computeParkScore(int parks) {
+    int score = 0;
+    while (parks != 0) {
+      int group = Integer.lowestOneBit(parks);
+      int grown = group;
+      do {
+        group = grown;
+        grown = (group | shape.neighbours(group)) & parks;
+      } while (grown != group);
+      score += scoreParkGroup(Integer.bitCount(group));
+      parks &= ~group;
+    }
+    return score;
+  }
+
+  /**
+   * Replays {@link Board#getStoreGroupSizes}: shops are visited in row-major order, and each shop
+   * not yet in a group starts a group running right or down, whichever is longer (right on a tie).
+   */
+  private int computeShopScore(int shops) {
+    int columns = shape.columns;
+    int used = 0;
+    int score = 0;
+    for (int cell = 0; cell < shape.cells; cell++) {
+      int rowEnd = cell - cell % columns + columns;
+      int rowLength = 0;
+      for (int c = cell; c < rowEnd && isFree(shops, used, c); c++) {
+        rowLength++;
+      }
+      int columnLength = 0;
+      for (int c = cell; c < shape.cells && isFree(shops, used, c); c += columns) {
+        columnLength++;
+      }
+      if (rowLength < columnLength) {
+        for (int i = 0; i < columnLength; i++) {
+          used |= 1 << (cell + i * columns);
+        }
+        score += scoreStoreGroup(columnLength);
+      } else if (rowLength > 0) {
+        for (int i = 0; i < rowLength; i++) {
+          used |= 1 << (cell + i);
+        }
+        score += scoreStoreGroup(rowLength);
+      }
+    }
+    return score;
+  }
+
+  private static boolean isFree(int shops, int used, int cell) {
+    return ((shops & ~used) >>> cell & 1) != 0;
+  }
+
+  int scoreParks(int parkMask) {
+    return parkScores != null ? parkScores[parkMask] : computeParkScore(parkMask);
+  }
+
+  int scoreShops(int shopMask) {
+    return shopScores != null ? shopScores[shopMask] : computeShopScore(shopMask);
+  }
+
+  /** Scores a board id of this shape; equivalent to {@code Board.getScore()}. */
+  int scoreId(long id, int[] scratchTypes, int[] scratchMasks) {
+    shape.decode(id, scratchTypes);
+    return score(scratchTypes, BoardShape.factoryRanking(id), scratchMasks);
+  }
+
+  /**
+   * Scores a board given the {@link Tile.Type} ordinal of each cell. {@code scratchMasks} must
+   * have room for one mask per type; its contents are overwritten.
+   */
+  int score(int[] types, int factoryRanking, int[] scratchMasks) {
+    Arrays.fill(scratchMasks, 0);
+    for (int cell = 0; cell < shape.cells; cell++) {
+      scratchMasks[types[cell]] |= 1 << cell;
+    }
+    return score(scratchMasks, factoryRanking);
+  }
+
+  /** Scores a board given, for each {@link Tile.Type} ordinal, the mask of cells holding it. */
+  int score(int[] masks, int factoryRanking) {
+    return Integer.bitCount(masks[FACTORY]) * factoryMultiplier(factoryRanking) + scoreHouses(masks)
+        + scoreOffices(masks) + scoreParks(masks[PARK]) + scoreShops(masks[SHOP])
+        + scoreTaverns(masks);
+  }
+
+  /**
+   * Writes the factory, house, office, park, shop and tavern scores of a board given by its type
+   * masks into {@code scores}, in that order; they add up to {@link #score(int[], int)}.
+   */
+  void scoreCategories(int[] masks, int factoryRanking, int[] scores) {
+    scores[0] = Integer.bitCount(masks[FACTORY]) * factoryMultiplier(factoryRanking);
+    scores[1] = scoreHouses(masks);
+    scores[2] = scoreOffices(masks);
+    scores[3] = scoreParks(masks[PARK]);
+    scores[4] = scoreShops(masks[SHOP]);
+    scores[5] = scoreTaverns(masks);
+  }
+
+  private static int taverns(int[] masks) {
+    return masks[FIRST_TAVERN] | masks[FIRST_TAVERN + 1] | masks[FIRST_TAVERN + 2]
+        | masks[FIRST_TAVERN + 3];
+  }
+
+  private int scoreHouses(int[] masks) {
+    int factories = masks[FACTORY];
+    int houses = masks[HOUSE];
+    int perHouse = (taverns(masks) != 0 ? 1 : 0) + (factories != 0 ? 1 : 0)
+        + (masks[SHOP] != 0 ? 1 : 0) + (masks[OFFICE] != 0 ? 1 : 0) + (masks[PARK] != 0 ? 1 : 0);
+    int housesNextToFactory = houses & shape.neighbours(factories);
+    return Integer.bitCount(housesNextToFactory)
+        + Integer.bitCount(houses & ~housesNextToFactory) * perHouse;
+  }
+
+  private int scoreOffices(int[] masks) {
+    int offices = masks[OFFICE];
+    return scoreOfficeCount(Integer.bitCount(offices))
+        + Integer.bitCount(offices & shape.neighbours(taverns(masks)));
+  }
+
+  private static int scoreTaverns(int[] masks) {
+    return scoreTavernCounts(Integer.bitCount(masks[FIRST_TAVERN]),
+        Integer.bitCount(masks[FIRST_TAVERN + 1]), Integer.bitCount(masks[FIRST_TAVERN + 2]),
+        Integer.bitCount(masks[FIRST_TAVERN + 3]));
+  }
+}
@@ -0,0 +1,58 @@
+package cities;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+public class GridScorerTests {
+
+  @Test
+  public void matchesPackedScorerOnStandardBoards() {
+    GridScorer scorer = GridScorer.of(BoardShape.STANDARD);
+    SplittableRandom random = new SplittableRandom(21);
+    int[] types = new int[16];
+    int[] masks = new int[BoardShape.TYPES];
+    for (int i = 0; i < 20_000; i++) {
+      long id = random.nextLong(BoardGenerator.MAX_LONG_EXCLUSIVE);
+      assertThat(scorer.scoreId(id, types, masks)).isEqualTo(PackedBoardScorer.scoreId(id));
+    }
+  }
+
+  @Test
+  public void matchesBoardOnOtherShapes() {
+    SplittableRandom random = new SplittableRandom(22);
+    for (BoardShape shape : new BoardShape[] {BoardShape.of(3, 3), BoardShape.of(2, 6),
+        BoardShape.of(4, 5), BoardShape.of(5, 5)}) {
+      GridScorer scorer = GridScorer.of(shape);
+      int[] types = new int[shape.cells];
+      int[] masks = new int[BoardShape.TYPES];
+      for (int i = 0; i < 500; i++) {
+        // Few types per board give larger park and shop groups.
+        int typeCount = 2 + random.nextInt(BoardShape.TYPES - 1);
+        for (int cell = 0; cell < shape.cells; cell++) {
+          types[cell] = random.nextInt(typeCount);
+        }
+        int rank = 1 + random.nextInt(3);
+        assertThat(scorer.score(types, rank, masks))
+            .isEqualTo(BoardGenerator.generateBoard(shape, types, rank).getScore());
+      }
+    }
+  }
+
+  @Test
+  public void longShopRowsScoreLikeFour() {
+    GridScorer scorer = GridScorer.of(BoardShape.of(1, 5));
+    assertThat(scorer.scoreShops(0b11111)).isEqualTo(16);
+    assertThat(scorer.scoreParks(0b11111)).isEqualTo(14);
+  }
+
+  @Test
+  public void boardOfOtherShapePrintsEveryRow() {
+    int[] types = new int[15];
+    Board board = BoardGenerator.generateBoard(BoardShape.of(3, 5), types, 1);
+    assertThat(board.toString().split("\n")).hasLength(2 + 3 * 3 + 2 + 1);
+    assertThat(board.getScore()).isEqualTo(60);
+  }
+}
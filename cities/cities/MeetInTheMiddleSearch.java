@@ -0,0 +1,807 @@
+package cities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Longs;
+
+import cities.Tile.Type;
+
+/**
+ * Finds the highest scoring boards by splitting every board into a top half (rows 0 and 1) and a
+ * bottom half (rows 2 and 3) and joining the best halves, instead of scoring every board.
+ * <p>
+ * The only rules that reach across the middle of a board are vertical adjacency (park groups,
+ * shop columns, houses next to factories and offices next to taverns) and the city-wide counts
+ * (which building types are present, how many offices and how many of each tavern). Each half is
+ * therefore summarised by a <em>boundary signature</em>: the tiles of its middle row, which of
+ * those still lack their house or office adjacency, the park groups reaching the middle row and
+ * their sizes, its shop cells, its office and tavern counts and the building types it contains.
+ * Everything else a half scores is its <em>local</em> score, so two halves with the same signature
+ * give the same total with any other half except for the difference in their local scores, and
+ * only the best half per signature needs to be joined.
+ * <p>
+ * The search runs once for every set of building types that may be present in the city, which
+ * fixes what each house is worth. Halves are grouped by their types, office count and tavern
+ * counts, so the office and tavern scores of a pair of groups are known exactly. Within a group,
+ * a half's potential is its local score plus the most its middle row and shops could add to a
+ * board. Halves and pairs of groups whose potentials cannot reach the best score found so far are
+ * dropped before they are indexed or joined.
+ * <p>
+ * Only the best factory ranking is searched; the same tiles with a worse ranking score less unless
+ * the board has no factories, in which case all three rankings are reported.
+ */
+class MeetInTheMiddleSearch {
+  private static final int HALF_CELLS = 8;
+  private static final int HALF_WIDTH = 4;
+  private static final int BOUNDARY_ROW = 0xF0;
+  private static final int ALL_TYPES = (1 << Type.values().length) - 1;
+  private static final int TAVERNS = 0xF << PackedBoardScorer.FIRST_TAVERN;
+  private static final int TAVERN_CODES = 9 * 9 * 9 * 9;
+  /** The type ordinals of the {@value #HALF_WIDTH} boundary cells, as base-9 digits. */
+  private static final int BOUNDARY_TYPE_CODES = 9 * 9 * 9 * 9;
+
+  // Bits of the presence mask, one per building type that houses count.
+  private static final int PRESENT_TAVERN = 1;
+  private static final int PRESENT_FACTORY = 2;
+  private static final int PRESENT_SHOP = 4;
+  private static final int PRESENT_OFFICE = 8;
+  private static final int PRESENT_PARK = 16;
+  private static final int ALL_PRESENT = 31;
+  private static final int GROUPS = (ALL_PRESENT + 1) * (HALF_CELLS + 1) * TAVERN_CODES;
+
+  private static final int INDEX_SLACK = 2;
+
+  private static final int[] PARTITION_INDEX = new int[256];
+  private static final int[] TOP_SHOP_POTENTIAL = new int[256];
+  private static final int[] BOTTOM_SHOP_SCORE = new int[256];
+
+  static {
+    Arrays.fill(PARTITION_INDEX, -1);
+    int partitions = 0;
+    for (int code = 0; code < 256; code++) {
+      boolean valid = true;
+      for (int c = 0; c < HALF_WIDTH; c++) {
+        int representative = (code >>> (2 * c)) & 3;
+        valid &= representative <= c && ((code >>> (2 * representative)) & 3) == representative;
+      }
+      if (valid) {
+        PARTITION_INDEX[code] = partitions++;
+      }
+    }
+    for (int bottom = 0; bottom < 256; bottom++) {
+      BOTTOM_SHOP_SCORE[bottom] = PackedBoardScorer.scoreShops(bottom << HALF_CELLS);
+    }
+    for (int top = 0; top < 256; top++) {
+      for (int bottom = 0; bottom < 256; bottom++) {
+        TOP_SHOP_POTENTIAL[top] = Math.max(TOP_SHOP_POTENTIAL[top],
+            PackedBoardScorer.scoreShops(top | bottom << HALF_CELLS) - BOTTOM_SHOP_SCORE[bottom]);
+      }
+    }
+  }
+
+  /** The highest score and every board id that reaches it, in ascending order. */
+  static final class Result {
+    final int score;
+    final long[] boardIds;
+
+    Result(int score, long[] boardIds) {
+      this.score = score;
+      this.boardIds = boardIds;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Best score %d on %d boards", score, boardIds.length);
+    }
+  }
+
+  /** Everything known about one half-board, plus scratch space for computing it. */
+  private static final class Half {
+    final int[] masks;
+    final int[] groupOfColumn;
+    final int[] sizeOfColumn;
+    long signature;
+    int group;
+    int local;
+    int potential;
+    long packed;
+
+    Half() {
+      masks = new int[Type.values().length];
+      groupOfColumn = new int[HALF_WIDTH];
+      sizeOfColumn = new int[HALF_WIDTH];
+    }
+
+    /** A copy of the results only, small enough to keep millions of in an index. */
+    private Half(Half from) {
+      masks = null;
+      groupOfColumn = null;
+      sizeOfColumn = null;
+      signature = from.signature;
+      group = from.group;
+      local = from.local;
+      potential = from.potential;
+      packed = from.packed;
+    }
+
+    Half copy() {
+      return new Half(this);
+    }
+  }
+
+  /** The best halves of one group, one per signature, sorted by descending potential. */
+  private static final class Index {
+    final int group;
+    final long[] signatures;
+    final int[] potentials;
+    final long[] packed;
+
+    Index(int group, List<Half> halves) {
+      halves.sort((a, b) -> Integer.compare(b.potential, a.potential));
+      this.group = group;
+      int n = halves.size();
+      signatures = new long[n];
+      potentials = new int[n];
+      packed = new long[n];
+      for (int i = 0; i < n; i++) {
+        Half half = halves.get(i);
+        signatures[i] = half.signature;
+        potentials[i] = half.potential;
+        packed[i] = half.packed;
+      }
+    }
+
+    int size() {
+      return signatures.length;
+    }
+  }
+
+  private final int[] allowedTypes;
+  private int best;
+  private final List<long[]> winners = new ArrayList<>();
+  private boolean verbose;
+
+  /** Searches every board. */
+  MeetInTheMiddleSearch() {
+    this(fullyUnconstrained());
+  }
+
+  /**
+   * Searches only boards where each cell {@code i} holds a type whose ordinal bit is set in
+   * {@code allowedTypes[i]}.
+   */
+  MeetInTheMiddleSearch(int[] allowedTypes) {
+    Preconditions.checkArgument(allowedTypes.length == PackedBoardScorer.CELLS,
+        "There must be exactly 16 cells!");
+    for (int allowed : allowedTypes) {
+      Preconditions.checkArgument(allowed > 0 && allowed <= ALL_TYPES, "Invalid cell types %s",
+          allowed);
+    }
+    this.allowedTypes = allowedTypes.clone();
+  }
+
+  private static int[] fullyUnconstrained() {
+    int[] allowed = new int[PackedBoardScorer.CELLS];
+    Arrays.fill(allowed, ALL_TYPES);
+    return allowed;
+  }
+
+  /**
+   * Constraints matching the boards whose ids share their first {@code fixedCells} tiles with
+   * {@code id}. Those boards are exactly the ids {@code [start, start + 3 * 9^(16 - fixedCells))},
+   * where {@code start} is {@code id} rounded down to a multiple of the range size.
+   */
+  static int[] prefixOf(long id, int fixedCells) {
+    Preconditions.checkArgument(fixedCells >= 0 && fixedCells <= PackedBoardScorer.CELLS);
+    long packed = BoardGenerator.packBoard(id);
+    int[] allowed = fullyUnconstrained();
+    for (int cell = 0; cell < fixedCells; cell++) {
+      allowed[cell] = 1 << PackedBoardScorer.tileAt(packed, cell);
+    }
+    return allowed;
+  }
+
+  /** Whether {@link #search} reports each target it has finished joining on standard error. */
+  void setVerbose(boolean verbose) {
+    this.verbose = verbose;
+  }
+
+  /** Finds the best boards, starting from the best board a quick hill climb can find. */
+  Result search() {
+    return search(hillClimb());
+  }
+
+  /**
+   * Finds the best boards given the score of a board that is known to satisfy the constraints.
+   * A good lower bound lets the search discard far more halves; it is only an optimisation.
+   */
+  Result search(int lowerBound) {
+    best = lowerBound;
+    winners.clear();
+    List<TypeSet> typeSets = new ArrayList<>();
+    for (int present = ALL_PRESENT; present >= 0; present--) {
+      TypeSet typeSet = new TypeSet(present);
+      if (typeSet.upperBound >= lowerBound) {
+        typeSets.add(typeSet);
+      }
+    }
+    // Join against a falling target: the best boards come from pairs of halves with high
+    // potentials, so finding them first avoids joining every pair that merely reaches the lower
+    // bound. Once a target has been joined everywhere, every board scoring at least that much has
+    // been seen.
+    int target = typeSets.stream().mapToInt(typeSet -> typeSet.upperBound).max().orElse(best);
+    for (; target >= lowerBound; target--) {
+      for (TypeSet typeSet : typeSets) {
+        if (typeSet.upperBound >= target) {
+          typeSet.join(target);
+        }
+      }
+      if (verbose) {
+        System.err.println(String.format("Joined every board scoring %d or more, best %d", target,
+            best));
+      }
+      if (best >= target) {
+        break;
+      }
+    }
+    Preconditions.checkState(!winners.isEmpty(), "No board reaches the lower bound %s",
+        lowerBound);
+    return new Result(best, collectWinningIds());
+  }
+
+  /**
+   * The score of a good board found by changing one cell at a time, starting from each board that
+   * fills every cell with the same type where allowed.
+   */
+  int hillClimb() {
+    int bestFound = 0;
+    for (int start = 0; start < Type.values().length; start++) {
+      long packed = 0;
+      for (int cell = 0; cell < PackedBoardScorer.CELLS; cell++) {
+        int allowed = allowedTypes[cell];
+        int type = (allowed >>> start & 1) != 0 ? start : Integer.numberOfTrailingZeros(allowed);
+        packed = (packed << 4) | type;
+      }
+      int score = PackedBoardScorer.score(packed, 1);
+      boolean improved = true;
+      while (improved) {
+        improved = false;
+        for (int cell = 0; cell < PackedBoardScorer.CELLS; cell++) {
+          int shift = 4 * (PackedBoardScorer.CELLS - 1 - cell);
+          for (int type = 0; type < Type.values().length; type++) {
+            if ((allowedTypes[cell] >>> type & 1) != 0) {
+              long candidate = (packed & ~(0xFL << shift)) | ((long) type << shift);
+              int candidateScore = PackedBoardScorer.score(candidate, 1);
+              if (candidateScore > score) {
+                packed = candidate;
+                score = candidateScore;
+                improved = true;
+              }
+            }
+          }
+        }
+      }
+      bestFound = Math.max(bestFound, score);
+    }
+    return bestFound;
+  }
+
+  /**
+   * The boards in which exactly the building types in {@code present} appear, which fixes the
+   * value of every house that is not next to a factory.
+   */
+  private final class TypeSet {
+    final int present;
+    final int houseValue;
+    final int[] topAllowed;
+    final int[] bottomAllowed;
+    final int[] topGroups;
+    final int[] topMaxPotentials;
+    final int[] bottomGroups;
+    final int[] bottomMaxPotentials;
+    final int upperBound;
+    Map<Integer, Index> tops;
+    Map<Integer, Index> bottoms;
+    List<int[]> pairs;
+    int indexedTarget = Integer.MAX_VALUE;
+
+    TypeSet(int present) {
+      this.present = present;
+      houseValue = Integer.bitCount(present);
+      topAllowed = restrict(0, present);
+      bottomAllowed = restrict(HALF_CELLS, present);
+      if (topAllowed == null || bottomAllowed == null) {
+        topGroups = topMaxPotentials = bottomGroups = bottomMaxPotentials = new int[0];
+        upperBound = Integer.MIN_VALUE;
+        return;
+      }
+      long[] topRepresentatives = new long[GROUPS];
+      long[] bottomRepresentatives = new long[GROUPS];
+      int[] topMax = maxPotentials(topAllowed, true, houseValue, topRepresentatives);
+      int[] bottomMax = maxPotentials(bottomAllowed, false, houseValue, bottomRepresentatives);
+      topGroups = groupsOf(topMax);
+      bottomGroups = groupsOf(bottomMax);
+      topMaxPotentials = Arrays.stream(topGroups).map(group -> topMax[group]).toArray();
+      bottomMaxPotentials = Arrays.stream(bottomGroups).map(group -> bottomMax[group]).toArray();
+
+      int bound = Integer.MIN_VALUE;
+      for (int t = 0; t < topGroups.length; t++) {
+        for (int b = 0; b < bottomGroups.length; b++) {
+          if ((presenceOf(topGroups[t]) | presenceOf(bottomGroups[b])) == present) {
+            bound = Math.max(bound, topMaxPotentials[t] + bottomMaxPotentials[b]
+                + groupScore(topGroups[t], bottomGroups[b]));
+            // The best halves of two groups often make a good board, which raises the lower
+            // bound cheaply.
+            best = Math.max(best, PackedBoardScorer.score(
+                topRepresentatives[topGroups[t]] | bottomRepresentatives[bottomGroups[b]], 1));
+          }
+        }
+      }
+      upperBound = bound;
+    }
+
+    /** Records every board of this type set scoring at least {@code target}. */
+    void join(int target) {
+      if (target < indexedTarget) {
+        // Index a few points below the target so the next targets can reuse it.
+        indexedTarget = target - INDEX_SLACK;
+        tops = index(topAllowed, true, houseValue,
+            needs(topGroups, topMaxPotentials, bottomGroups, bottomMaxPotentials, indexedTarget));
+        bottoms = index(bottomAllowed, false, houseValue,
+            needs(bottomGroups, bottomMaxPotentials, topGroups, topMaxPotentials, indexedTarget));
+        pairs = new ArrayList<>();
+        for (Index top : tops.values()) {
+          for (Index bottom : bottoms.values()) {
+            if ((presenceOf(top.group) | presenceOf(bottom.group)) == present) {
+              int groupScore = groupScore(top.group, bottom.group);
+              int bound = top.potentials[0] + bottom.potentials[0] + groupScore;
+              if (bound >= indexedTarget) {
+                pairs.add(new int[] {bound, top.group, bottom.group, groupScore});
+              }
+            }
+          }
+        }
+        pairs.sort((a, b) -> Integer.compare(b[0], a[0]));
+      }
+      for (int[] pair : pairs) {
+        if (pair[0] < target) {
+          break;
+        }
+        MeetInTheMiddleSearch.this.join(tops.get(pair[1]), bottoms.get(pair[2]), pair[3],
+            present, target);
+      }
+    }
+
+    /**
+     * The potential a half of each group needs for a board with a half from the best partner group
+     * to reach {@code target}.
+     */
+    private int[] needs(int[] groups, int[] maxPotentials, int[] otherGroups,
+        int[] otherMaxPotentials, int target) {
+      int[] needs = new int[GROUPS];
+      Arrays.fill(needs, Integer.MAX_VALUE);
+      for (int i = 0; i < groups.length; i++) {
+        int bestPartner = Integer.MIN_VALUE;
+        for (int j = 0; j < otherGroups.length; j++) {
+          if ((presenceOf(groups[i]) | presenceOf(otherGroups[j])) == present) {
+            bestPartner = Math.max(bestPartner,
+                otherMaxPotentials[j] + groupScore(groups[i], otherGroups[j]));
+          }
+        }
+        if (bestPartner != Integer.MIN_VALUE) {
+          needs[groups[i]] = target - bestPartner;
+        }
+      }
+      return needs;
+    }
+  }
+
+  /** The types each cell of one half may hold when exactly {@code present} types are present. */
+  private int[] restrict(int firstCell, int present) {
+    int typesAllowed = 1 << PackedBoardScorer.HOUSE;
+    if ((present & PRESENT_TAVERN) != 0) {
+      typesAllowed |= TAVERNS;
+    }
+    if ((present & PRESENT_FACTORY) != 0) {
+      typesAllowed |= 1 << PackedBoardScorer.FACTORY;
+    }
+    if ((present & PRESENT_SHOP) != 0) {
+      typesAllowed |= 1 << PackedBoardScorer.SHOP;
+    }
+    if ((present & PRESENT_OFFICE) != 0) {
+      typesAllowed |= 1 << PackedBoardScorer.OFFICE;
+    }
+    if ((present & PRESENT_PARK) != 0) {
+      typesAllowed |= 1 << PackedBoardScorer.PARK;
+    }
+    int[] allowed = new int[HALF_CELLS];
+    for (int cell = 0; cell < HALF_CELLS; cell++) {
+      allowed[cell] = allowedTypes[firstCell + cell] & typesAllowed;
+      if (allowed[cell] == 0) {
+        return null;
+      }
+    }
+    return allowed;
+  }
+
+  private static int presenceOf(int group) {
+    return group / ((HALF_CELLS + 1) * TAVERN_CODES);
+  }
+
+  /** The office and tavern score of a board made of halves from the two groups. */
+  private static int groupScore(int first, int second) {
+    int offices =
+        first / TAVERN_CODES % (HALF_CELLS + 1) + second / TAVERN_CODES % (HALF_CELLS + 1);
+    int[] taverns = new int[4];
+    for (int kind = 3, a = first % TAVERN_CODES, b = second % TAVERN_CODES; kind >= 0; kind--) {
+      taverns[kind] = a % 9 + b % 9;
+      a /= 9;
+      b /= 9;
+    }
+    return PackedBoardScorer.scoreOfficeCount(offices)
+        + PackedBoardScorer.scoreTavernCounts(taverns[0], taverns[1], taverns[2], taverns[3]);
+  }
+
+  private static int[] groupsOf(int[] maxPotentials) {
+    return IntStream.range(0, GROUPS)
+        .filter(group -> maxPotentials[group] != Integer.MIN_VALUE).toArray();
+  }
+
+  /**
+   * Records, for every group, the highest potential of its halves and a half that has it in
+   * {@code representatives}.
+   */
+  private static int[] maxPotentials(int[] allowed, boolean top, int houseValue,
+      long[] representatives) {
+    int[] max = new int[GROUPS];
+    Arrays.fill(max, Integer.MIN_VALUE);
+    Half half = new Half();
+    forEachHalf(allowed, packed -> {
+      evaluate(packed, top, houseValue, half);
+      if (half.potential > max[half.group]) {
+        max[half.group] = half.potential;
+        representatives[half.group] = half.packed;
+      }
+    });
+    return max;
+  }
+
+  private static Map<Integer, Index> index(int[] allowed, boolean top, int houseValue,
+      int[] needs) {
+    Map<Long, Half> bestBySignature = new HashMap<>();
+    Half half = new Half();
+    forEachHalf(allowed, packed -> {
+      evaluate(packed, top, houseValue, half);
+      if (half.potential >= needs[half.group]) {
+        Half previous = bestBySignature.get(half.signature);
+        if (previous == null || half.local > previous.local) {
+          bestBySignature.put(half.signature, half.copy());
+        }
+      }
+    });
+    Map<Integer, List<Half>> byGroup = new HashMap<>();
+    for (Half indexed : bestBySignature.values()) {
+      byGroup.computeIfAbsent(indexed.group, group -> new ArrayList<>()).add(indexed);
+    }
+    Map<Integer, Index> indexes = new HashMap<>();
+    byGroup.forEach((group, halves) -> indexes.put(group, new Index(group, halves)));
+    return indexes;
+  }
+
+  /** Scores every pair of halves from the two groups whose potentials reach {@code target}. */
+  private void join(Index tops, Index bottoms, int groupScore, int present, int target) {
+    for (int t = 0; t < tops.size(); t++) {
+      if (tops.potentials[t] + bottoms.potentials[0] + groupScore < target) {
+        return;
+      }
+      for (int b = 0; b < bottoms.size(); b++) {
+        if (tops.potentials[t] + bottoms.potentials[b] + groupScore < target) {
+          break;
+        }
+        int score = PackedBoardScorer.score(tops.packed[t] | bottoms.packed[b], 1);
+        if (score < target) {
+          continue;
+        }
+        if (score > best) {
+          best = score;
+          winners.clear();
+        }
+        if (score == best) {
+          winners.add(new long[] {tops.signatures[t], bottoms.signatures[b], present});
+        }
+      }
+    }
+  }
+
+  /**
+   * Expands the winning signature pairs into board ids. Every half with a winning signature and the
+   * best local score for it is part of a best board, so each side is enumerated once more.
+   */
+  private long[] collectWinningIds() {
+    Set<Long> ids = new TreeSet<>();
+    Map<Integer, List<long[]>> byPresent = new HashMap<>();
+    for (long[] winner : winners) {
+      byPresent.computeIfAbsent((int) winner[2], present -> new ArrayList<>()).add(winner);
+    }
+    for (Map.Entry<Integer, List<long[]>> entry : byPresent.entrySet()) {
+      int present = entry.getKey();
+      int houseValue = Integer.bitCount(present);
+      Set<Long> topSignatures = new HashSet<>();
+      Set<Long> bottomSignatures = new HashSet<>();
+      for (long[] winner : entry.getValue()) {
+        topSignatures.add(winner[0]);
+        bottomSignatures.add(winner[1]);
+      }
+      Map<Long, List<Long>> topHalves =
+          bestHalves(restrict(0, present), true, houseValue, topSignatures);
+      Map<Long, List<Long>> bottomHalves =
+          bestHalves(restrict(HALF_CELLS, present), false, houseValue, bottomSignatures);
+      for (long[] winner : entry.getValue()) {
+        for (long top : topHalves.get(winner[0])) {
+          for (long bottom : bottomHalves.get(winner[1])) {
+            long packed = top | bottom;
+            long id = 3 * digits(packed);
+            ids.add(id);
+            if (!hasFactory(packed)) {
+              ids.add(id + 1);
+              ids.add(id + 2);
+            }
+          }
+        }
+      }
+    }
+    return Longs.toArray(ids);
+  }
+
+  private static boolean hasFactory(long packed) {
+    for (int cell = 0; cell < PackedBoardScorer.CELLS; cell++) {
+      if (PackedBoardScorer.tileAt(packed, cell) == PackedBoardScorer.FACTORY) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** The base-9 tile digits of a packed board, i.e. its board id divided by 3. */
+  private static long digits(long packed) {
+    long digits = 0;
+    for (int cell = 0; cell < PackedBoardScorer.CELLS; cell++) {
+      digits = digits * 9 + PackedBoardScorer.tileAt(packed, cell);
+    }
+    return digits;
+  }
+
+  private static Map<Long, List<Long>> bestHalves(int[] allowed, boolean top, int houseValue,
+      Set<Long> signatures) {
+    Map<Long, Integer> bestLocal = new HashMap<>();
+    Map<Long, List<Long>> halves = new HashMap<>();
+    Half half = new Half();
+    forEachHalf(allowed, packed -> {
+      evaluate(packed, top, houseValue, half);
+      if (signatures.contains(half.signature)) {
+        int previous = bestLocal.getOrDefault(half.signature, Integer.MIN_VALUE);
+        if (half.local > previous) {
+          bestLocal.put(half.signature, half.local);
+          halves.put(half.signature, new ArrayList<>());
+        }
+        if (half.local >= previous) {
+          halves.get(half.signature).add(half.packed);
+        }
+      }
+    });
+    return halves;
+  }
+
+  private interface HalfConsumer {
+    void accept(long half);
+  }
+
+  /**
+   * Calls {@code consumer} with every half allowed by {@code allowed}: 8 tiles of 4 bits each in
+   * row-major order, the first in the highest bits.
+   */
+  private static void forEachHalf(int[] allowed, HalfConsumer consumer) {
+    int[][] choices = new int[HALF_CELLS][];
+    for (int cell = 0; cell < HALF_CELLS; cell++) {
+      choices[cell] = new int[Integer.bitCount(allowed[cell])];
+      int i = 0;
+      for (int type = 0; type < Type.values().length; type++) {
+        if ((allowed[cell] >>> type & 1) != 0) {
+          choices[cell][i++] = type;
+        }
+      }
+    }
+    int[] position = new int[HALF_CELLS];
+    while (true) {
+      long half = 0;
+      for (int cell = 0; cell < HALF_CELLS; cell++) {
+        half = (half << 4) | choices[cell][position[cell]];
+      }
+      consumer.accept(half);
+      int cell = HALF_CELLS - 1;
+      while (cell >= 0 && ++position[cell] == choices[cell].length) {
+        position[cell] = 0;
+        cell--;
+      }
+      if (cell < 0) {
+        return;
+      }
+    }
+  }
+
+  private static int neighbours(int mask) {
+    return ((mask << 1) & ~0x11 & 0xFF) | ((mask >>> 1) & ~0x88) | ((mask << HALF_WIDTH) & 0xFF)
+        | (mask >>> HALF_WIDTH);
+  }
+
+  /**
+   * Scores one half from {@link #forEachHalf}. Half coordinates put the middle row of the board
+   * last, so the bottom half is flipped vertically; {@link Half#packed} is placed back where it
+   * belongs on the board.
+   */
+  private static void evaluate(long half, boolean top, int houseValue, Half result) {
+    int[] masks = result.masks;
+    Arrays.fill(masks, 0);
+    for (int cell = 0; cell < HALF_CELLS; cell++) {
+      int type = (int) (half >>> (4 * (HALF_CELLS - 1 - cell))) & 0xF;
+      int halfCell = top ? cell : (cell + HALF_WIDTH) % HALF_CELLS;
+      masks[type] |= 1 << halfCell;
+    }
+    evaluate(masks, top, houseValue, result);
+    result.packed = top ? half << (4 * HALF_CELLS) : half;
+  }
+
+  private static void evaluate(int[] masks, boolean top, int houseValue, Half result) {
+    int factories = masks[PackedBoardScorer.FACTORY];
+    int houses = masks[PackedBoardScorer.HOUSE];
+    int offices = masks[PackedBoardScorer.OFFICE];
+    int parks = masks[PackedBoardScorer.PARK];
+    int shops = masks[PackedBoardScorer.SHOP];
+    int taverns = 0;
+    int tavernCode = 0;
+    for (int kind = 0; kind < 4; kind++) {
+      int mask = masks[PackedBoardScorer.FIRST_TAVERN + kind];
+      taverns |= mask;
+      tavernCode = tavernCode * 9 + Integer.bitCount(mask);
+    }
+
+    int local = 4 * Integer.bitCount(factories);
+    int housesNextToFactory = houses & neighbours(factories);
+    local += Integer.bitCount(housesNextToFactory);
+    local += houseValue * Integer.bitCount(houses & ~housesNextToFactory & ~BOUNDARY_ROW);
+    int officesNextToTavern = offices & neighbours(taverns);
+    local += Integer.bitCount(officesNextToTavern);
+    int unresolved = ((houses & ~housesNextToFactory) | (offices & ~officesNextToTavern))
+        & BOUNDARY_ROW;
+
+    int boundaryGroups = 0;
+    int boundaryParkScore = 0;
+    int[] groupOfColumn = result.groupOfColumn;
+    int[] sizeOfColumn = result.sizeOfColumn;
+    Arrays.fill(sizeOfColumn, 0);
+    int remaining = parks;
+    while (remaining != 0) {
+      int group = Integer.lowestOneBit(remaining);
+      int grown = group;
+      do {
+        group = grown;
+        grown = (group | neighbours(group)) & parks;
+      } while (grown != group);
+      remaining &= ~group;
+      int size = Integer.bitCount(group);
+      if ((group & BOUNDARY_ROW) == 0) {
+        local += PackedBoardScorer.scoreParkGroup(size);
+      } else {
+        boundaryGroups++;
+        boundaryParkScore += PackedBoardScorer.scoreParkGroup(size);
+        int first = Integer.numberOfTrailingZeros(group & BOUNDARY_ROW) - HALF_WIDTH;
+        for (int column = 0; column < HALF_WIDTH; column++) {
+          if ((group >>> (HALF_WIDTH + column) & 1) != 0) {
+            groupOfColumn[column] = first;
+            sizeOfColumn[column] = size;
+          }
+        }
+      }
+    }
+    int partition = 0;
+    int sizesCode = 0;
+    int boundaryTypes = 0;
+    for (int column = HALF_WIDTH - 1; column >= 0; column--) {
+      int bit = 1 << (HALF_WIDTH + column);
+      partition = partition * 4 + ((parks & bit) != 0 ? groupOfColumn[column] : column);
+      sizesCode = sizesCode * 9 + sizeOfColumn[column];
+      int type = 0;
+      while ((masks[type] & bit) == 0) {
+        type++;
+      }
+      boundaryTypes = boundaryTypes * 9 + type;
+    }
+
+    // Shops are kept in board orientation so a pair can be looked up directly.
+    int boardShops = top ? shops : ((shops >>> HALF_WIDTH) | (shops << HALF_WIDTH)) & 0xFF;
+
+    int presence = (taverns != 0 ? PRESENT_TAVERN : 0) | (factories != 0 ? PRESENT_FACTORY : 0)
+        | (shops != 0 ? PRESENT_SHOP : 0) | (offices != 0 ? PRESENT_OFFICE : 0)
+        | (parks != 0 ? PRESENT_PARK : 0);
+    int group = (presence * (HALF_CELLS + 1) + Integer.bitCount(offices)) * TAVERN_CODES
+        + tavernCode;
+
+    long signature = group;
+    signature = signature * BOUNDARY_TYPE_CODES + boundaryTypes;
+    signature = signature * 16 + (unresolved >>> HALF_WIDTH);
+    signature = signature * 15 + PARTITION_INDEX[partition];
+    signature = signature * 6561 + sizesCode;
+    signature = signature * 256 + boardShops;
+
+    // A park group reaching the middle gains at most 2 points from merging with the other side.
+    int potential = local + houseValue * Integer.bitCount(unresolved & houses)
+        + Integer.bitCount(unresolved & offices) + boundaryParkScore + 2 * boundaryGroups
+        + (top ? TOP_SHOP_POTENTIAL[boardShops] : BOTTOM_SHOP_SCORE[boardShops]);
+
+    result.signature = signature;
+    result.group = group;
+    result.local = local;
+    result.potential = potential;
+  }
+
+  /**
+   * Runs the search on {@code samples} random ranges of {@code 3 * 9^freeCells} board ids and
+   * compares it with scoring every board in the range.
+   *
+   * @throws IllegalStateException if the best score or best boards differ
+   */
+  static void crossCheck(SplittableRandom random, int samples, int freeCells) {
+    long rangeSize = 3 * (long) Math.pow(9, freeCells);
+    for (int sample = 0; sample < samples; sample++) {
+      long id = random.nextLong(BoardGenerator.MAX_LONG_EXCLUSIVE);
+      long start = id - id % rangeSize;
+      Result result =
+          new MeetInTheMiddleSearch(prefixOf(id, PackedBoardScorer.CELLS - freeCells)).search();
+      int bestScore = Integer.MIN_VALUE;
+      List<Long> bestIds = new ArrayList<>();
+      for (long candidate = start; candidate < start + rangeSize; candidate++) {
+        int score = BoardGenerator.generateBoardFromLong(candidate).getScore();
+        if (score > bestScore) {
+          bestScore = score;
+          bestIds.clear();
+        }
+        if (score == bestScore) {
+          bestIds.add(candidate);
+        }
+      }
+      Preconditions.checkState(
+          result.score == bestScore && Arrays.equals(result.boardIds, Longs.toArray(bestIds)),
+          "Range [%s, %s): search found %s on %s boards, brute force %s on %s boards", start,
+          start + rangeSize, result.score, result.boardIds.length, bestScore, bestIds.size());
+    }
+  }
+
+  public static void main(String[] args) {
+    if (args.length > 0 && args[0].equals("--check")) {
+      int samples = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+      int freeCells = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+      crossCheck(new SplittableRandom(0), samples, freeCells);
+      System.err.println(String.format("%d ranges matched brute force", samples));
+      return;
+    }
+    long start = System.nanoTime();
+    MeetInTheMiddleSearch search = new MeetInTheMiddleSearch();
+    search.setVerbose(true);
+    Result result = search.search();
+    System.err.println(result);
+    for (long id : result.boardIds) {
+      System.err.println(BoardGenerator.generateBoardFromLong(id));
+    }
+    System.err.println(String.format("Finished in %.1fs", (System.nanoTime() - start) / 1e9));
+  }
+}
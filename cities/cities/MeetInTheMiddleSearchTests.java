@@ -0,0 +1,96 @@
+package cities;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+import com.google.common.primitives.Longs;
+
+import cities.Tile.Type;
+
+public class MeetInTheMiddleSearchTests {
+
+  private static int typesOf(Type... types) {
+    int mask = 0;
+    for (Type type : types) {
+      mask |= 1 << type.ordinal();
+    }
+    return mask;
+  }
+
+  @Test
+  public void matchesBruteForceOnSampledRanges() {
+    MeetInTheMiddleSearch.crossCheck(new SplittableRandom(1), 3, 4);
+  }
+
+  @Test
+  public void matchesBruteForceWithFreeCellsInBothHalves() {
+    int[] allowed = new int[16];
+    Arrays.fill(allowed, typesOf(Type.PARK, Type.SHOP, Type.HOUSE));
+    for (int cell = 0; cell < 16; cell += 3) {
+      allowed[cell] = typesOf(Type.FACTORY);
+    }
+    MeetInTheMiddleSearch.Result result = new MeetInTheMiddleSearch(allowed).search();
+
+    int[] freeTypes = {Type.PARK.ordinal(), Type.SHOP.ordinal(), Type.HOUSE.ordinal()};
+    int bestScore = Integer.MIN_VALUE;
+    List<Long> bestIds = new ArrayList<>();
+    for (long digits = 0; digits < (long) Math.pow(3, 10); digits++) {
+      long id = 0;
+      long remaining = digits;
+      for (int cell = 0; cell < 16; cell++) {
+        int type = Type.FACTORY.ordinal();
+        if (cell % 3 != 0) {
+          type = freeTypes[(int) (remaining % 3)];
+          remaining /= 3;
+        }
+        id = id * 9 + type;
+      }
+      for (long rank = 0; rank < 3; rank++) {
+        int score = PackedBoardScorer.scoreId(3 * id + rank);
+        if (score > bestScore) {
+          bestScore = score;
+          bestIds.clear();
+        }
+        if (score == bestScore) {
+          bestIds.add(3 * id + rank);
+        }
+      }
+    }
+    bestIds.sort(null);
+    assertThat(result.score).isEqualTo(bestScore);
+    assertThat(Longs.asList(result.boardIds)).containsExactlyElementsIn(bestIds).inOrder();
+  }
+
+  @Test
+  public void boardsWithoutFactoriesAreBestInEveryRanking() {
+    int[] allowed = new int[16];
+    Arrays.fill(allowed, typesOf(Type.OFFICE, Type.TAVERN_BED, Type.TAVERN_DRINK,
+        Type.TAVERN_FOOD, Type.TAVERN_MUSIC));
+    MeetInTheMiddleSearch.Result result = new MeetInTheMiddleSearch(allowed).search();
+    // Twelve offices, each next to one of four different taverns.
+    assertThat(result.score).isEqualTo(71);
+    assertThat(result.boardIds.length).isEqualTo(144);
+    for (long id : result.boardIds) {
+      assertThat(BoardGenerator.generateBoardFromLong(id).getScore()).isEqualTo(71);
+    }
+  }
+
+  @Test
+  public void prefixMatchesIdRange() {
+    long id = 1_234_567_890_123L;
+    int[] allowed = MeetInTheMiddleSearch.prefixOf(id, 12);
+    long rangeSize = 3 * 9 * 9 * 9 * 9;
+    long start = id - id % rangeSize;
+    long packed = BoardGenerator.packBoard(start);
+    for (int cell = 0; cell < 12; cell++) {
+      assertThat(allowed[cell]).isEqualTo(1 << PackedBoardScorer.tileAt(packed, cell));
+    }
+    assertThat(BoardGenerator.packBoard(start + rangeSize) >>> 16).isNotEqualTo(packed >>> 16);
+  }
+}
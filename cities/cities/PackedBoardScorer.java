@@ -0,0 +1,117 @@
+package cities;
+
+/**
+ * Scores standard boards in the packed form produced by {@link BoardGenerator#packBoard} using bit
+ * masks instead of a tile graph. The rules are those of {@link GridScorer} for
+ * {@link BoardShape#STANDARD}, which follow {@link Board}'s; this class gives the hot loops static
+ * entry points and the 4x4 constants.
+ * <p>
+ * Cells are numbered row-major from 0 to 15, and a cell mask has bit {@code i} set for cell
+ * {@code i}. Park and shop scores depend only on the mask of park or shop cells, so both are
+ * copied from the standard scorer's tables for all 2^16 masks into static arrays.
+ */
+final class PackedBoardScorer {
+  static final int CELLS = 16;
+  static final int WIDTH = 4;
+  static final int FULL_MASK = 0xFFFF;
+
+  static final int FACTORY = GridScorer.FACTORY;
+  static final int HOUSE = GridScorer.HOUSE;
+  static final int OFFICE = GridScorer.OFFICE;
+  static final int PARK = GridScorer.PARK;
+  static final int SHOP = GridScorer.SHOP;
+  static final int FIRST_TAVERN = GridScorer.FIRST_TAVERN;
+
+  private static final GridScorer STANDARD = GridScorer.of(BoardShape.STANDARD);
+  private static final byte[] PARK_SCORES = new byte[1 << CELLS];
+  private static final byte[] SHOP_SCORES = new byte[1 << CELLS];
+
+  static {
+    for (int mask = 0; mask <= FULL_MASK; mask++) {
+      PARK_SCORES[mask] = (byte) STANDARD.scoreParks(mask);
+      SHOP_SCORES[mask] = (byte) STANDARD.scoreShops(mask);
+    }
+  }
+
+  private PackedBoardScorer() {}
+
+  /** The cells orthogonally adjacent to at least one cell of {@code mask}. */
+  static int neighbours(int mask) {
+    return BoardShape.STANDARD.neighbours(mask);
+  }
+
+  static int tileAt(long packed, int cell) {
+    return (int) (packed >>> (4 * (CELLS - 1 - cell))) & 0xF;
+  }
+
+  static int scoreParkGroup(int size) {
+    return GridScorer.scoreParkGroup(size);
+  }
+
+  static int scoreStoreGroup(int size) {
+    return GridScorer.scoreStoreGroup(size);
+  }
+
+  static int scoreParks(int parkMask) {
+    return PARK_SCORES[parkMask];
+  }
+
+  static int scoreShops(int shopMask) {
+    return SHOP_SCORES[shopMask];
+  }
+
+  static int scoreOfficeCount(int offices) {
+    return GridScorer.scoreOfficeCount(offices);
+  }
+
+  /** Scores taverns from the count of each of the four kinds; see {@link Board#scoreTaverns}. */
+  static int scoreTavernCounts(int a, int b, int c, int d) {
+    return GridScorer.scoreTavernCounts(a, b, c, d);
+  }
+
+  static int factoryMultiplier(int factoryRanking) {
+    return GridScorer.factoryMultiplier(factoryRanking);
+  }
+
+  /** Scores a packed board; equivalent to {@code Board.getScore()}. */
+  static int score(long packed, int factoryRanking) {
+    int[] masks = new int[Tile.Type.values().length];
+    for (int cell = 0; cell < CELLS; cell++) {
+      masks[tileAt(packed, cell)] |= 1 << cell;
+    }
+    return score(masks, factoryRanking);
+  }
+
+  /** Scores a board id; equivalent to {@code generateBoardFromLong(id).getScore()}. */
+  static int scoreId(long id) {
+    return score(BoardGenerator.packBoard(id), (int) (id % 3) + 1);
+  }
+
+  /** Scores a board given, for each {@link Tile.Type} ordinal, the mask of cells holding it. */
+  static int score(int[] masks, int factoryRanking) {
+    return STANDARD.score(masks, factoryRanking);
+  }
+
+  /**
+   * The factory, house, office, park, shop and tavern scores of a board id, in that order; they
+   * add up to {@link #scoreId}.
+   */
+  static int[] scoreCategories(long id) {
+    long packed = BoardGenerator.packBoard(id);
+    int[] masks = new int[Tile.Type.values().length];
+    for (int cell = 0; cell < CELLS; cell++) {
+      masks[tileAt(packed, cell)] |= 1 << cell;
+    }
+    int[] scores = new int[6];
+    scoreCategories(masks, (int) (id % 3) + 1, scores);
+    return scores;
+  }
+
+  /**
+   * Writes the six category scores of a board given by its type masks into {@code scores}, in the
+   * order of {@link #scoreCategories(long)}.
+   */
+  static void scoreCategories(int[] masks, int factoryRanking, int[] scores) {
+    STANDARD.scoreCategories(masks, factoryRanking, scores);
+  }
+}
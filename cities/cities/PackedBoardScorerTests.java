@@ -0,0 +1,53 @@
+package cities;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+public class PackedBoardScorerTests {
+
+  @Test
+  public void allShopsScoreAsRows() {
+    assertThat(PackedBoardScorer.scoreShops(PackedBoardScorer.FULL_MASK)).isEqualTo(64);
+  }
+
+  @Test
+  public void allParksAreOneGroup() {
+    assertThat(PackedBoardScorer.scoreParks(PackedBoardScorer.FULL_MASK)).isEqualTo(25);
+  }
+
+  @Test
+  public void tavernCountsScoreLikeSets() {
+    assertThat(PackedBoardScorer.scoreTavernCounts(16, 0, 0, 0)).isEqualTo(16);
+    assertThat(PackedBoardScorer.scoreTavernCounts(1, 1, 1, 1)).isEqualTo(17);
+    assertThat(PackedBoardScorer.scoreTavernCounts(0, 3, 1, 2)).isEqualTo(9 + 4 + 1);
+  }
+
+  @Test
+  public void matchesBoardOnRandomBoards() {
+    SplittableRandom random = new SplittableRandom(11);
+    for (int i = 0; i < 2_000; i++) {
+      long id = random.nextLong(BoardGenerator.MAX_LONG_EXCLUSIVE);
+      assertThat(PackedBoardScorer.scoreId(id))
+          .isEqualTo(BoardGenerator.generateBoardFromLong(id).getScore());
+    }
+  }
+
+  @Test
+  public void matchesBoardOnBoardsWithFewTypes() {
+    SplittableRandom random = new SplittableRandom(12);
+    for (int i = 0; i < 2_000; i++) {
+      int first = random.nextInt(9);
+      int second = random.nextInt(9);
+      long digits = 0;
+      for (int cell = 0; cell < 16; cell++) {
+        digits = digits * 9 + (random.nextBoolean() ? first : second);
+      }
+      long id = 3 * digits + random.nextInt(3);
+      assertThat(PackedBoardScorer.scoreId(id))
+          .isEqualTo(BoardGenerator.generateBoardFromLong(id).getScore());
+    }
+  }
+}
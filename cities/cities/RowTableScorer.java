@@ -0,0 +1,175 @@
+package cities;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Scores standard boards from their four rows. A row is one of 9^4 = {@value #ROW_STATES} states,
+ * the row's four base-9 digits of the board id, so an id splits into row states with three
+ * divisions, and everything about a row is looked up in tables built once for every state.
+ * <p>
+ * A row's entry in {@link #ROW_TYPES} holds the 4-bit masks of its houses, factories, offices and
+ * taverns, one in each 16-bit lane of a {@code long}, and its entry in {@link #ROW_EXTRAS} the
+ * masks of its parks and shops and of its houses next to a factory and offices next to a tavern
+ * within the row. Shifting the four rows' entries by their row offsets and or-ing them builds four
+ * whole-board {@link PackedBoardScorer} masks at once. What crosses rows is then patched up on
+ * those masks: vertical neighbours are a shift by a row, and parks and shops, whose groups can span
+ * any number of rows, come from the 2^16-entry tables of {@link PackedBoardScorer}. Tavern counts
+ * are summed from {@link #ROW_TAVERNS} in packed fields.
+ * <p>
+ * Full tables for pairs of adjacent rows would need 6561^2 entries, far beyond any cache; the row
+ * tables take about 130KB, and with the park and shop tables about 260KB.
+ * <p>
+ * Usage: {@code RowTableScorer} compares its rate with {@link Board#getScore()} and
+ * {@link PackedBoardScorer} on the same random ids.
+ */
+final class RowTableScorer {
+  static final int ROW_STATES = 9 * 9 * 9 * 9;
+  private static final int WIDTH = PackedBoardScorer.WIDTH;
+  private static final int ROW_MASK = (1 << WIDTH) - 1;
+  private static final int LANE = 16;
+  private static final int LANE_MASK = (1 << LANE) - 1;
+  private static final int TAVERN_BITS = 5;
+  private static final int TAVERN_MASK = (1 << TAVERN_BITS) - 1;
+
+  private static final int BOARD_SAMPLES = 20_000;
+  private static final int SCORER_SAMPLES = 5_000_000;
+  private static final int ROUNDS = 5;
+
+  /** Houses, factories, offices and taverns, by lane. */
+  private static final long[] ROW_TYPES = new long[ROW_STATES];
+  /** Parks, shops, houses next to a factory in the row and offices next to a tavern in the row. */
+  private static final long[] ROW_EXTRAS = new long[ROW_STATES];
+  /** The count of each kind of tavern, {@value #TAVERN_BITS} bits each. */
+  private static final int[] ROW_TAVERNS = new int[ROW_STATES];
+
+  static {
+    int[] masks = new int[BoardShape.TYPES];
+    for (int row = 0; row < ROW_STATES; row++) {
+      Arrays.fill(masks, 0);
+      int digits = row;
+      for (int column = WIDTH - 1; column >= 0; column--) {
+        masks[digits % 9] |= 1 << column;
+        digits /= 9;
+      }
+      int taverns = 0;
+      int counts = 0;
+      for (int kind = 0; kind < 4; kind++) {
+        taverns |= masks[PackedBoardScorer.FIRST_TAVERN + kind];
+        counts |= Integer.bitCount(masks[PackedBoardScorer.FIRST_TAVERN + kind])
+            << (TAVERN_BITS * kind);
+      }
+      int houses = masks[PackedBoardScorer.HOUSE];
+      int factories = masks[PackedBoardScorer.FACTORY];
+      int offices = masks[PackedBoardScorer.OFFICE];
+      ROW_TYPES[row] = lanes(houses, factories, offices, taverns);
+      ROW_EXTRAS[row] = lanes(masks[PackedBoardScorer.PARK], masks[PackedBoardScorer.SHOP],
+          houses & rowNeighbours(factories), offices & rowNeighbours(taverns));
+      ROW_TAVERNS[row] = counts;
+    }
+  }
+
+  private RowTableScorer() {}
+
+  private static long lanes(int first, int second, int third, int fourth) {
+    return first | (long) second << LANE | (long) third << (2 * LANE) | (long) fourth << (3 * LANE);
+  }
+
+  /** The cells of a row next to at least one cell of {@code mask} in the same row. */
+  private static int rowNeighbours(int mask) {
+    return ((mask << 1) | (mask >>> 1)) & ROW_MASK;
+  }
+
+  /** The cells of the board directly above or below at least one cell of {@code mask}. */
+  private static int verticalNeighbours(int mask) {
+    return ((mask << WIDTH) | (mask >>> WIDTH)) & PackedBoardScorer.FULL_MASK;
+  }
+
+  /** Scores a board id; equivalent to {@code generateBoardFromLong(id).getScore()}. */
+  static int score(long id) {
+    long digits = id / 3;
+    int row3 = (int) (digits % ROW_STATES);
+    digits /= ROW_STATES;
+    int row2 = (int) (digits % ROW_STATES);
+    digits /= ROW_STATES;
+    int row1 = (int) (digits % ROW_STATES);
+    int row0 = (int) (digits / ROW_STATES);
+
+    long types = ROW_TYPES[row0] | ROW_TYPES[row1] << WIDTH | ROW_TYPES[row2] << (2 * WIDTH)
+        | ROW_TYPES[row3] << (3 * WIDTH);
+    long extras = ROW_EXTRAS[row0] | ROW_EXTRAS[row1] << WIDTH
+        | ROW_EXTRAS[row2] << (2 * WIDTH) | ROW_EXTRAS[row3] << (3 * WIDTH);
+    int tavernCounts = ROW_TAVERNS[row0] + ROW_TAVERNS[row1] + ROW_TAVERNS[row2]
+        + ROW_TAVERNS[row3];
+
+    int houses = (int) types & LANE_MASK;
+    int factories = (int) (types >>> LANE) & LANE_MASK;
+    int offices = (int) (types >>> (2 * LANE)) & LANE_MASK;
+    int taverns = (int) (types >>> (3 * LANE));
+    int parks = (int) extras & LANE_MASK;
+    int shops = (int) (extras >>> LANE) & LANE_MASK;
+    int housesNextToFactory = houses
+        & ((int) (extras >>> (2 * LANE)) | verticalNeighbours(factories));
+    int officesNextToTavern = offices
+        & ((int) (extras >>> (3 * LANE)) | verticalNeighbours(taverns));
+
+    int perHouse = (taverns != 0 ? 1 : 0) + (factories != 0 ? 1 : 0) + (shops != 0 ? 1 : 0)
+        + (offices != 0 ? 1 : 0) + (parks != 0 ? 1 : 0);
+    return Integer.bitCount(factories)
+            * PackedBoardScorer.factoryMultiplier((int) (id % 3) + 1)
+        + Integer.bitCount(housesNextToFactory)
+        + Integer.bitCount(houses & ~housesNextToFactory) * perHouse
+        + PackedBoardScorer.scoreOfficeCount(Integer.bitCount(offices))
+        + Integer.bitCount(officesNextToTavern)
+        + PackedBoardScorer.scoreParks(parks) + PackedBoardScorer.scoreShops(shops)
+        + PackedBoardScorer.scoreTavernCounts(tavernCounts & TAVERN_MASK,
+            tavernCounts >>> TAVERN_BITS & TAVERN_MASK,
+            tavernCounts >>> (2 * TAVERN_BITS) & TAVERN_MASK,
+            tavernCounts >>> (3 * TAVERN_BITS));
+  }
+
+  public static void main(String[] args) {
+    double boardRate = 0;
+    double packedRate = 0;
+    double rowRate = 0;
+    // The first rounds warm up the JIT; keep the best.
+    for (int round = 0; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      long checksum = 0;
+      SplittableRandom random = new SplittableRandom(round);
+      for (int i = 0; i < BOARD_SAMPLES; i++) {
+        checksum += BoardGenerator.generateBoardFromLong(
+            random.nextLong(BoardGenerator.MAX_LONG_EXCLUSIVE)).getScore();
+      }
+      boardRate = Math.max(boardRate, rate(BOARD_SAMPLES, start, checksum));
+
+      start = System.nanoTime();
+      checksum = 0;
+      random = new SplittableRandom(round);
+      for (int i = 0; i < SCORER_SAMPLES; i++) {
+        checksum += PackedBoardScorer.scoreId(random.nextLong(BoardGenerator.MAX_LONG_EXCLUSIVE));
+      }
+      packedRate = Math.max(packedRate, rate(SCORER_SAMPLES, start, checksum));
+
+      start = System.nanoTime();
+      checksum = 0;
+      random = new SplittableRandom(round);
+      for (int i = 0; i < SCORER_SAMPLES; i++) {
+        checksum += score(random.nextLong(BoardGenerator.MAX_LONG_EXCLUSIVE));
+      }
+      rowRate = Math.max(rowRate, rate(SCORER_SAMPLES, start, checksum));
+    }
+    System.out.println(String.format("Board.getScore    %,14.0f boards/s%n"
+        + "PackedBoardScorer %,14.0f boards/s%nRowTableScorer    %,14.0f boards/s (%.0fx Board)",
+        boardRate, packedRate, rowRate, rowRate / boardRate));
+  }
+
+  private static double rate(long count, long startNanos, long checksum) {
+    long elapsed = System.nanoTime() - startNanos;
+    // Using the checksum stops the JIT from discarding the work being timed.
+    if (checksum == Long.MIN_VALUE) {
+      System.out.println(checksum);
+    }
+    return count * 1e9 / elapsed;
+  }
+}
@@ -0,0 +1,48 @@
+package cities;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+public class RowTableScorerTests {
+
+  @Test
+  public void matchesBoardOnRandomBoards() {
+    SplittableRandom random = new SplittableRandom(36);
+    for (int i = 0; i < 2_000; i++) {
+      long id = random.nextLong(BoardGenerator.MAX_LONG_EXCLUSIVE);
+      assertThat(RowTableScorer.score(id))
+          .isEqualTo(BoardGenerator.generateBoardFromLong(id).getScore());
+    }
+  }
+
+  @Test
+  public void matchesPackedScorerOnBoardsWithFewTypes() {
+    SplittableRandom random = new SplittableRandom(37);
+    int[] types = new int[BoardShape.STANDARD.cells];
+    for (int i = 0; i < 20_000; i++) {
+      int first = random.nextInt(BoardShape.TYPES);
+      int second = random.nextInt(BoardShape.TYPES);
+      for (int cell = 0; cell < types.length; cell++) {
+        types[cell] = random.nextBoolean() ? first : second;
+      }
+      long id = BoardShape.STANDARD.encode(types, 1 + random.nextInt(3));
+      assertThat(RowTableScorer.score(id)).isEqualTo(PackedBoardScorer.scoreId(id));
+    }
+  }
+
+  @Test
+  public void scoresEdgeBoards() {
+    int[] types = new int[BoardShape.STANDARD.cells];
+    Arrays.fill(types, PackedBoardScorer.HOUSE);
+    assertThat(RowTableScorer.score(BoardShape.STANDARD.encode(types, 1))).isEqualTo(0);
+    // The first and last ids hold only factories and only music taverns.
+    assertThat(RowTableScorer.score(0)).isEqualTo(64);
+    assertThat(RowTableScorer.score(BoardGenerator.MAX_LONG_EXCLUSIVE - 1))
+        .isEqualTo(BoardGenerator.generateBoardFromLong(BoardGenerator.MAX_LONG_EXCLUSIVE - 1)
+            .getScore());
+  }
+}
@@ -0,0 +1,108 @@
+package cities;
+
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.stream.LongStream;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Draws board ids uniformly at random from the boards with one exact score.
+ * <p>
+ * Common scores are sampled by rejection: random ids are scored until one matches, at a cost per
+ * sample of one over the score's frequency. That is hopeless in the tail, so there the sampler
+ * counts the class with {@link CompletionCounts}: for every prefix of cells, the number of ways to
+ * complete it to a board with the target score. Drawing each next cell in proportion to those
+ * counts picks every board of the class with equal probability, in a few microseconds per cell
+ * however rare the class.
+ * <p>
+ * {@link #of} runs a pilot of random boards to choose between the two. Rejection is used while the
+ * pilot finds at least {@value #MIN_PILOT_HITS} matches, which keeps it above roughly a hundred
+ * samples a second; rarer classes are counted. Counting works for every score, but its cost grows
+ * towards the middle of the distribution, where rejection is cheap.
+ */
+final class ScoreSampler {
+  static final int PILOT_BOARDS = 1 << 20;
+  static final int MIN_PILOT_HITS = 16;
+
+  final BoardShape shape;
+  final int score;
+  private final GridScorer scorer;
+  /** The score class in counting mode, or null when sampling by rejection. */
+  private final CompletionCounts counts;
+  private final int[] types;
+  private final int[] masks = new int[BoardShape.TYPES];
+
+  private ScoreSampler(BoardShape shape, int score, CompletionCounts counts) {
+    Preconditions.checkArgument(shape.hasLongIds(), "Board ids of %s do not fit a long", shape);
+    this.shape = shape;
+    this.score = score;
+    this.scorer = GridScorer.of(shape);
+    this.counts = counts;
+    types = new int[shape.cells];
+  }
+
+  /** A sampler for {@code score}, choosing rejection or counting from a pilot run. */
+  static ScoreSampler of(BoardShape shape, int score) {
+    if (shape.boardCount() <= PILOT_BOARDS) {
+      return counting(shape, score);
+    }
+    ScoreSampler rejection = rejection(shape, score);
+    SplittableRandom random = new SplittableRandom(score);
+    int hits = 0;
+    for (int drawn = 0; drawn < PILOT_BOARDS && hits < MIN_PILOT_HITS; drawn++) {
+      if (rejection.scores(random.nextLong(shape.boardCount()))) {
+        hits++;
+      }
+    }
+    return hits >= MIN_PILOT_HITS ? rejection : counting(shape, score);
+  }
+
+  /** A sampler that counts the boards scoring {@code score} up front. */
+  static ScoreSampler counting(BoardShape shape, int score) {
+    return new ScoreSampler(shape, score, CompletionCounts.of(shape, score));
+  }
+
+  /**
+   * A sampler that scores random boards until one matches. It never returns if no board scores
+   * {@code score}.
+   */
+  static ScoreSampler rejection(BoardShape shape, int score) {
+    return new ScoreSampler(shape, score, null);
+  }
+
+  boolean isCounting() {
+    return counts != null;
+  }
+
+  /** The number of boards with the target score; counting mode only. */
+  long size() {
+    Preconditions.checkState(counts != null, "Class sizes are only known when counting");
+    return counts.count();
+  }
+
+  /**
+   * Draws one id with the target score, using only {@code random} for randomness.
+   *
+   * @throws NoSuchElementException in counting mode, if no board scores the target
+   */
+  long next(SplittableRandom random) {
+    if (counts != null) {
+      return counts.draw(random);
+    }
+    long id;
+    do {
+      id = random.nextLong(shape.boardCount());
+    } while (!scores(id));
+    return id;
+  }
+
+  /** An endless stream of independent samples. */
+  LongStream samples(SplittableRandom random) {
+    return LongStream.generate(() -> next(random));
+  }
+
+  private boolean scores(long id) {
+    return scorer.scoreId(id, types, masks) == score;
+  }
+}
@@ -0,0 +1,145 @@
+package cities;
+
+import static com.google.common.truth.Truth.assert_;
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.function.LongToIntFunction;
+import java.util.stream.LongStream;
+
+import org.junit.Test;
+
+public class ScoreSamplerTests {
+  private static final BoardShape SMALL = BoardShape.of(2, 3);
+  /** The boards sharing a first cell and factory ranking; 27 of them. */
+  private static final LongToIntFunction FIRST_CELL_AND_RANKING =
+      id -> (int) (id / (SMALL.boardCount() / 9)) * 3 + BoardShape.factoryRanking(id) - 1;
+
+  private static long[] scan(int score) {
+    GridScorer scorer = GridScorer.of(SMALL);
+    int[] types = new int[SMALL.cells];
+    int[] masks = new int[BoardShape.TYPES];
+    return LongStream.range(0, SMALL.boardCount())
+        .filter(id -> scorer.scoreId(id, types, masks) == score)
+        .toArray();
+  }
+
+  /**
+   * Checks that {@code samples} of {@code sampler} fall into the bins of {@code bin} in proportion
+   * to the number of boards of {@code expected} in each, by a chi-squared statistic more than six
+   * standard deviations above its mean.
+   */
+  private static void assertProportional(ScoreSampler sampler, long[] expected, int bins,
+      LongToIntFunction bin, int samples) {
+    long[] boards = new long[bins];
+    for (long id : expected) {
+      boards[bin.applyAsInt(id)]++;
+    }
+    long[] drawn = new long[bins];
+    SplittableRandom random = new SplittableRandom(bins);
+    int[] types = new int[SMALL.cells];
+    int[] masks = new int[BoardShape.TYPES];
+    for (int i = 0; i < samples; i++) {
+      long id = sampler.next(random);
+      assertThat(GridScorer.of(SMALL).scoreId(id, types, masks)).isEqualTo(sampler.score);
+      drawn[bin.applyAsInt(id)]++;
+    }
+    double chiSquared = 0;
+    int degrees = -1;
+    for (int i = 0; i < bins; i++) {
+      if (boards[i] == 0) {
+        assertThat(drawn[i]).isEqualTo(0L);
+        continue;
+      }
+      double mean = (double) samples * boards[i] / expected.length;
+      chiSquared += (drawn[i] - mean) * (drawn[i] - mean) / mean;
+      degrees++;
+    }
+    assertThat(chiSquared).isLessThan(degrees + 6 * Math.sqrt(2 * degrees));
+  }
+
+  @Test
+  public void countsMatchScan() {
+    for (BoardShape shape : new BoardShape[] {SMALL, BoardShape.of(3, 2), BoardShape.of(1, 5)}) {
+      GridScorer scorer = GridScorer.of(shape);
+      int[] types = new int[shape.cells];
+      int[] masks = new int[BoardShape.TYPES];
+      long[] boards = new long[100];
+      for (long id = 0; id < shape.boardCount(); id++) {
+        boards[scorer.scoreId(id, types, masks)]++;
+      }
+      for (int score = 0; score < boards.length; score++) {
+        assertThat(CompletionCounts.of(shape, score).count()).isEqualTo(boards[score]);
+      }
+    }
+  }
+
+  @Test
+  public void countedSamplesAreUniform() {
+    long[] expected = scan(25);
+    ScoreSampler sampler = ScoreSampler.counting(SMALL, 25);
+    assertThat(sampler.isCounting()).isTrue();
+    assertThat(sampler.size()).isEqualTo((long) expected.length);
+    // One bin per board.
+    assertProportional(sampler, expected, expected.length,
+        id -> Arrays.binarySearch(expected, id), 200 * expected.length);
+  }
+
+  @Test
+  public void countedSamplesMatchPrefixCounts() {
+    assertProportional(ScoreSampler.counting(SMALL, 20), scan(20), 27, FIRST_CELL_AND_RANKING,
+        50_000);
+  }
+
+  @Test
+  public void rejectionSamplesMatchPrefixCounts() {
+    assertProportional(ScoreSampler.rejection(SMALL, 12), scan(12), 27, FIRST_CELL_AND_RANKING,
+        50_000);
+  }
+
+  @Test
+  public void pilotChoosesRejectionForCommonScores() {
+    ScoreSampler common = ScoreSampler.of(SMALL, 12);
+    ScoreSampler rare = ScoreSampler.of(SMALL, 0);
+    assertThat(common.isCounting()).isFalse();
+    assertThat(rare.isCounting()).isTrue();
+    assertThat(rare.size()).isEqualTo(3L);
+    try {
+      common.size();
+      assert_().fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test
+  public void countsStandardTails() {
+    GridScorer scorer = GridScorer.of(BoardShape.STANDARD);
+    int[] types = new int[BoardShape.STANDARD.cells];
+    int[] masks = new int[BoardShape.TYPES];
+    // About one standard board in 10^7 scores 69, and one in 10^10 scores 16.
+    for (int score : new int[] {16, 69}) {
+      ScoreSampler sampler = ScoreSampler.of(BoardShape.STANDARD, score);
+      assertThat(sampler.isCounting()).isTrue();
+      assertThat(sampler.size()).isGreaterThan(0L);
+      SplittableRandom random = new SplittableRandom(score);
+      for (int i = 0; i < 1000; i++) {
+        assertThat(scorer.scoreId(sampler.next(random), types, masks))
+            .isEqualTo(score);
+      }
+    }
+    assertThat(ScoreSampler.of(BoardShape.STANDARD, 70).size()).isEqualTo(0L);
+  }
+
+  @Test
+  public void emptyClassHasNoSamples() {
+    ScoreSampler sampler = ScoreSampler.of(SMALL, 5);
+    assertThat(sampler.size()).isEqualTo(0L);
+    try {
+      sampler.next(new SplittableRandom(1));
+      assert_().fail();
+    } catch (NoSuchElementException expected) {
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package cities;
+
+/**
+ * A scoring engine to be checked against {@link Board#getScore()} by {@link ScoringOracle}.
+ * <p>
+ * Candidates are called from many threads at once, so implementations must be stateless or keep
+ * their scratch space per thread.
+ */
+interface ScoringCandidate {
+
+  /** The score of the standard board with the given id. */
+  int score(long id);
+
+  /**
+   * The score of each {@link ScoringOracle.Category} of the board, in declaration order, or null
+   * if the engine only computes totals.
+   */
+  default int[] categoryScores(long id) {
+    return null;
+  }
+
+  /** {@link PackedBoardScorer}, with per-category scores. */
+  static ScoringCandidate packed() {
+    return new ScoringCandidate() {
+      @Override
+      public int score(long id) {
+        return PackedBoardScorer.scoreId(id);
+      }
+
+      @Override
+      public int[] categoryScores(long id) {
+        return PackedBoardScorer.scoreCategories(id);
+      }
+
+      @Override
+      public String toString() {
+        return "packed";
+      }
+    };
+  }
+
+  /** {@link GridScorer} for the standard shape. */
+  static ScoringCandidate grid() {
+    GridScorer scorer = GridScorer.of(BoardShape.STANDARD);
+    ThreadLocal<int[]> types = ThreadLocal.withInitial(() -> new int[BoardShape.STANDARD.cells]);
+    ThreadLocal<int[]> masks = ThreadLocal.withInitial(() -> new int[BoardShape.TYPES]);
+    return new ScoringCandidate() {
+      @Override
+      public int score(long id) {
+        return scorer.scoreId(id, types.get(), masks.get());
+      }
+
+      @Override
+      public String toString() {
+        return "grid";
+      }
+    };
+  }
+
+  /** {@link RowTableScorer}. */
+  static ScoringCandidate rows() {
+    return new ScoringCandidate() {
+      @Override
+      public int score(long id) {
+        return RowTableScorer.score(id);
+      }
+
+      @Override
+      public String toString() {
+        return "rows";
+      }
+    };
+  }
+}
@@ -0,0 +1,156 @@
+package cities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures {@link ScoringServer} latency and throughput from one machine. Client threads send
+ * requests back to back for a fixed time, each for random boards, and every request's latency is
+ * kept, so the reported percentiles are exact. Requests turned away by backpressure are counted
+ * but not timed.
+ * <p>
+ * Usage: {@code ScoringLoadGenerator [port] [clients] [seconds] [boards per request]}, defaulting
+ * to a server started in this process, 16 clients, 10 seconds and single boards. A port of 0 also
+ * starts one here. Single boards go to {@code GET /score}, larger requests to {@code POST /batch}.
+ */
+final class ScoringLoadGenerator {
+  private static final byte[] EMPTY = new byte[0];
+
+  private ScoringLoadGenerator() {}
+
+  /** What one client saw. */
+  private static final class ClientResult {
+    long[] latencies = new long[1024];
+    int requests;
+    long rejected;
+    long errors;
+
+    void record(long nanos) {
+      if (requests == latencies.length) {
+        latencies = Arrays.copyOf(latencies, 2 * requests);
+      }
+      latencies[requests++] = nanos;
+    }
+  }
+
+  private static ClientResult runClient(String base, int boardsPerRequest, long deadline,
+      long seed) throws IOException {
+    SplittableRandom random = new SplittableRandom(seed);
+    ClientResult result = new ClientResult();
+    StringBuilder body = new StringBuilder();
+    while (System.nanoTime() < deadline) {
+      HttpURLConnection connection;
+      byte[] request = EMPTY;
+      if (boardsPerRequest == 1) {
+        connection = (HttpURLConnection) new URL(base + "score?board="
+            + random.nextLong(BoardGenerator.MAX_LONG_EXCLUSIVE)).openConnection();
+      } else {
+        body.setLength(0);
+        for (int i = 0; i < boardsPerRequest; i++) {
+          body.append("board=").append(random.nextLong(BoardGenerator.MAX_LONG_EXCLUSIVE))
+              .append('\n');
+        }
+        request = body.toString().getBytes(StandardCharsets.UTF_8);
+        connection = (HttpURLConnection) new URL(base + "batch").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+      }
+      long start = System.nanoTime();
+      if (request.length > 0) {
+        try (OutputStream out = connection.getOutputStream()) {
+          out.write(request);
+        }
+      }
+      int status = connection.getResponseCode();
+      // Reading the whole response lets the connection be reused.
+      try (InputStream in = status == 200 ? connection.getInputStream()
+          : connection.getErrorStream()) {
+        while (in != null && in.read(new byte[8192]) >= 0) {}
+      }
+      if (status == 200) {
+        result.record(System.nanoTime() - start);
+      } else if (status == 503) {
+        result.rejected++;
+      } else {
+        result.errors++;
+      }
+    }
+    return result;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+    int clients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+    double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+    int boardsPerRequest = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+
+    // As in ScoringServer.main; an embedded server reads this when it starts.
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+    ScoringServer embedded = port == 0 ? new ScoringServer(0) : null;
+    String base = "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+        + (embedded != null ? embedded.getPort() : port) + "/";
+    ExecutorService pool = Executors.newFixedThreadPool(clients);
+    try {
+      long start = System.nanoTime();
+      long deadline = start + (long) (seconds * 1e9);
+      List<Future<ClientResult>> futures = new ArrayList<>();
+      for (int client = 0; client < clients; client++) {
+        long seed = client;
+        futures.add(pool.submit(() -> runClient(base, boardsPerRequest, deadline, seed)));
+      }
+      long[] latencies = new long[0];
+      long rejected = 0;
+      long errors = 0;
+      for (Future<ClientResult> future : futures) {
+        ClientResult result;
+        try {
+          result = future.get();
+        } catch (ExecutionException e) {
+          throw new IOException("A client failed", e.getCause());
+        }
+        int previous = latencies.length;
+        latencies = Arrays.copyOf(latencies, previous + result.requests);
+        System.arraycopy(result.latencies, 0, latencies, previous, result.requests);
+        rejected += result.rejected;
+        errors += result.errors;
+      }
+      double elapsed = (System.nanoTime() - start) / 1e9;
+      Arrays.sort(latencies);
+      System.err.println(String.format(
+          "%d clients, %d boards per request, %.1fs against %s%n"
+              + "%d requests (%.0f/s, %.0f boards/s), %d rejected, %d errors%n"
+              + "latency ms: p50 %.2f, p99 %.2f, max %.2f",
+          clients, boardsPerRequest, elapsed, base, latencies.length, latencies.length / elapsed,
+          (double) latencies.length * boardsPerRequest / elapsed, rejected, errors,
+          percentile(latencies, 0.50), percentile(latencies, 0.99),
+          percentile(latencies, 1.0)));
+    } finally {
+      pool.shutdown();
+      if (embedded != null) {
+        embedded.close();
+      }
+    }
+  }
+
+  /** The latency in milliseconds below which a {@code fraction} of the sorted latencies fall. */
+  private static double percentile(long[] sortedNanos, double fraction) {
+    if (sortedNanos.length == 0) {
+      return Double.NaN;
+    }
+    int index = (int) Math.ceil(fraction * sortedNanos.length) - 1;
+    return sortedNanos[Math.max(index, 0)] / 1e6;
+  }
+}
@@ -0,0 +1,400 @@
+package cities;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Checks a {@link ScoringCandidate} against {@link Board#getScore()}, the reference, on streams of
+ * random and adversarial boards.
+ * <p>
+ * Boards are checked in batches of {@value #BATCH_BOARDS} on the common fork/join pool. Batch
+ * {@code n} draws from a generator seeded by {@code (seed, n)}, so a run finds the same mismatches
+ * however it is scheduled. Every other board of a batch is uniformly random; the rest cycle through
+ * the adversarial {@link Source}s, which build the layouts the rules treat specially.
+ * <p>
+ * A mismatching board is shrunk to a minimal failing case. A board of houses scores nothing, so
+ * tiles are first replaced by houses, then by lower type ordinals, and the factory ranking lowered,
+ * for as long as the candidate still disagrees with the reference. The report puts the reference
+ * score of each {@link Category} next to the candidate's when the candidate provides them, and
+ * the report tallies the boards on which each category is wrong.
+ * <p>
+ * Usage: {@code ScoringOracle ci|soak [packed|grid|rows] [seed] [hours]}. The CI mode checks
+ * {@value #CI_BATCHES} batches; the soak mode checks rounds of {@value #SOAK_ROUND_BATCHES}
+ * batches until a mismatch or the time limit, 8 hours by default. Both exit with status 1 on a
+ * mismatch.
+ */
+final class ScoringOracle {
+  static final int BATCH_BOARDS = 1024;
+  static final int CI_BATCHES = 200;
+  static final int SOAK_ROUND_BATCHES = 2_000;
+  /** Only this many mismatches, those with the smallest ids, are kept for shrinking. */
+  static final int MAX_KEPT_MISMATCHES = 5;
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+  private static final int CELLS = BoardShape.STANDARD.cells;
+  private static final int COLUMNS = BoardShape.STANDARD.columns;
+  private static final int HOUSE = PackedBoardScorer.HOUSE;
+  private static final int PARK = PackedBoardScorer.PARK;
+  private static final int SHOP = PackedBoardScorer.SHOP;
+  private static final int OFFICE = PackedBoardScorer.OFFICE;
+  private static final int FIRST_TAVERN = PackedBoardScorer.FIRST_TAVERN;
+
+  /** The parts of a score, in the order of {@link ScoringCandidate#categoryScores}. */
+  enum Category {
+    FACTORIES(Board::scoreFactories),
+    HOUSES(Board::scoreHouses),
+    OFFICES(Board::scoreOffices),
+    PARKS(Board::scoreParks),
+    SHOPS(Board::scoreShops),
+    TAVERNS(Board::scoreTaverns);
+
+    final ToIntFunction<Board> reference;
+
+    Category(ToIntFunction<Board> reference) {
+      this.reference = reference;
+    }
+  }
+
+  /** Where the boards of a batch come from. */
+  enum Source {
+    /** Every cell a uniformly random type. */
+    RANDOM {
+      @Override
+      void fill(int[] types, SplittableRandom random) {
+        randomTypes(types, random);
+      }
+    },
+    /** One or two crosses of shops, with arms of random length, over random tiles. */
+    SHOP_CROSSES {
+      @Override
+      void fill(int[] types, SplittableRandom random) {
+        randomTypes(types, random);
+        for (int crosses = 1 + random.nextInt(2); crosses > 0; crosses--) {
+          int centre = random.nextInt(CELLS);
+          int row = centre / COLUMNS;
+          int column = centre % COLUMNS;
+          types[centre] = SHOP;
+          int up = random.nextInt(row + 1);
+          int down = random.nextInt(CELLS / COLUMNS - row);
+          int left = random.nextInt(column + 1);
+          int right = random.nextInt(COLUMNS - column);
+          for (int i = 1; i <= up; i++) {
+            types[centre - i * COLUMNS] = SHOP;
+          }
+          for (int i = 1; i <= down; i++) {
+            types[centre + i * COLUMNS] = SHOP;
+          }
+          for (int i = 1; i <= left; i++) {
+            types[centre - i] = SHOP;
+          }
+          for (int i = 1; i <= right; i++) {
+            types[centre + i] = SHOP;
+          }
+        }
+      }
+    },
+    /** A connected region of 4 to 16 parks grown from a random cell, over random tiles. */
+    PARK_REGIONS {
+      @Override
+      void fill(int[] types, SplittableRandom random) {
+        randomTypes(types, random);
+        int region = 1 << random.nextInt(CELLS);
+        for (int size = 4 + random.nextInt(CELLS - 3); Integer.bitCount(region) < size;) {
+          int border = BoardShape.STANDARD.neighbours(region) & ~region;
+          region |= nthBit(border, random.nextInt(Integer.bitCount(border)));
+        }
+        for (int cell = 0; cell < CELLS; cell++) {
+          if ((region >>> cell & 1) != 0) {
+            types[cell] = PARK;
+          }
+        }
+      }
+    },
+    /** Mostly taverns with skewed kinds, mixed with offices that may earn the tavern bonus. */
+    TAVERN_MIXES {
+      @Override
+      void fill(int[] types, SplittableRandom random) {
+        int[] weights = new int[4];
+        for (int kind = 0; kind < weights.length; kind++) {
+          weights[kind] = random.nextInt(4);
+        }
+        int totalWeight = Arrays.stream(weights).sum();
+        for (int cell = 0; cell < CELLS; cell++) {
+          int roll = random.nextInt(8);
+          if (roll < 5 && totalWeight > 0) {
+            int pick = random.nextInt(totalWeight);
+            int kind = 0;
+            while (pick >= weights[kind]) {
+              pick -= weights[kind++];
+            }
+            types[cell] = FIRST_TAVERN + kind;
+          } else if (roll < 7) {
+            types[cell] = OFFICE;
+          } else {
+            types[cell] = random.nextInt(BoardShape.TYPES);
+          }
+        }
+      }
+    },
+    /** Every cell one of two random types, possibly the same one. */
+    FEW_TYPES {
+      @Override
+      void fill(int[] types, SplittableRandom random) {
+        int first = random.nextInt(BoardShape.TYPES);
+        int second = random.nextInt(BoardShape.TYPES);
+        for (int cell = 0; cell < CELLS; cell++) {
+          types[cell] = random.nextBoolean() ? first : second;
+        }
+      }
+    };
+
+    /** Fills {@code types} with a board's {@link Tile.Type} ordinals in row-major order. */
+    abstract void fill(int[] types, SplittableRandom random);
+
+    private static void randomTypes(int[] types, SplittableRandom random) {
+      for (int cell = 0; cell < types.length; cell++) {
+        types[cell] = random.nextInt(BoardShape.TYPES);
+      }
+    }
+
+    private static int nthBit(int mask, int n) {
+      for (; n > 0; n--) {
+        mask &= mask - 1;
+      }
+      return Integer.lowestOneBit(mask);
+    }
+  }
+
+  /** For each type, a house and then every lower type other than a house. */
+  private static final int[][] SIMPLER_TYPES = new int[BoardShape.TYPES][];
+
+  static {
+    for (int type = 0; type < BoardShape.TYPES; type++) {
+      SIMPLER_TYPES[type] = type == HOUSE ? new int[0] : IntStream.concat(IntStream.of(HOUSE),
+          IntStream.range(0, type).filter(lower -> lower != HOUSE)).toArray();
+    }
+  }
+
+  private static final Source[] ADVERSARIES =
+      Arrays.copyOfRange(Source.values(), 1, Source.values().length);
+
+  private final ScoringCandidate candidate;
+  private final long seed;
+
+  ScoringOracle(ScoringCandidate candidate, long seed) {
+    this.candidate = candidate;
+    this.seed = seed;
+  }
+
+  /** Checks batches {@code [firstBatch, firstBatch + batches)} on the common fork/join pool. */
+  Report check(long firstBatch, long batches) {
+    return LongStream.range(firstBatch, firstBatch + batches).parallel()
+        .collect(Report::new, this::checkBatch, Report::merge);
+  }
+
+  private void checkBatch(Report report, long batch) {
+    SplittableRandom random =
+        new SplittableRandom(GameSimulator.mix(seed + GOLDEN_GAMMA * (batch + 1)));
+    int[] types = new int[CELLS];
+    for (int i = 0; i < BATCH_BOARDS; i++) {
+      Source source = i % 2 == 0 ? Source.RANDOM : ADVERSARIES[i / 2 % ADVERSARIES.length];
+      source.fill(types, random);
+      long id = BoardShape.STANDARD.encode(types, 1 + random.nextInt(3));
+      Board board = BoardGenerator.generateBoardFromLong(id);
+      report.record(source, id, candidate.score(id) == board.getScore());
+      int[] categoryScores = candidate.categoryScores(id);
+      if (categoryScores != null) {
+        report.recordCategories(board, categoryScores);
+      }
+    }
+  }
+
+  /** Whether the candidate agrees with the reference on board {@code id}. */
+  boolean matches(long id) {
+    return candidate.score(id) == BoardGenerator.generateBoardFromLong(id).getScore();
+  }
+
+  /**
+   * A board on which the candidate still disagrees with the reference, reached from the
+   * mismatching board {@code id} by steps that each make one tile a house or a lower type, or
+   * lower the factory ranking, until no such step keeps the disagreement.
+   */
+  long shrink(long id) {
+    Preconditions.checkArgument(!matches(id), "Board %s does not fail", id);
+    int[] types = new int[CELLS];
+    BoardShape.STANDARD.decode(id, types);
+    int ranking = BoardShape.factoryRanking(id);
+    boolean shrunk;
+    do {
+      shrunk = false;
+      for (int cell = 0; cell < CELLS; cell++) {
+        int original = types[cell];
+        for (int simpler : SIMPLER_TYPES[original]) {
+          types[cell] = simpler;
+          if (!matches(BoardShape.STANDARD.encode(types, ranking))) {
+            shrunk = true;
+            break;
+          }
+          types[cell] = original;
+        }
+      }
+      for (int lower = 1; lower < ranking; lower++) {
+        if (!matches(BoardShape.STANDARD.encode(types, lower))) {
+          ranking = lower;
+          shrunk = true;
+          break;
+        }
+      }
+    } while (shrunk);
+    return BoardShape.STANDARD.encode(types, ranking);
+  }
+
+  /** The board, both totals and, when the candidate provides them, each category's scores. */
+  String describe(long id) {
+    Board board = BoardGenerator.generateBoardFromLong(id);
+    int[] categoryScores = candidate.categoryScores(id);
+    StringBuilder builder = new StringBuilder(String.format("Board %d (factory ranking %d)%n%s",
+        id, BoardShape.factoryRanking(id), board));
+    builder.append(String.format("%n%-10s %9s %9s", "", "reference", candidate));
+    for (Category category : Category.values()) {
+      int reference = category.reference.applyAsInt(board);
+      boolean wrong = categoryScores != null && categoryScores[category.ordinal()] != reference;
+      builder.append(String.format("%n%-10s %9d %9s%s", category, reference,
+          categoryScores == null ? "?" : categoryScores[category.ordinal()], wrong ? "  <--" : ""));
+    }
+    builder.append(String.format("%n%-10s %9d %9d", "TOTAL", board.getScore(),
+        candidate.score(id)));
+    return builder.toString();
+  }
+
+  /**
+   * Counts of checked and mismatching boards per source, of category mismatches when the candidate
+   * provides category scores, and the smallest mismatching ids. Results from different threads are
+   * combined with {@link #merge}, which does not depend on the order in which batches finished.
+   */
+  static final class Report {
+    private final long[] checked = new long[Source.values().length];
+    private final long[] mismatches = new long[Source.values().length];
+    /** Boards whose category scores were compared. */
+    private long categoriesChecked;
+    private final long[] categoryMismatches = new long[Category.values().length];
+    private final TreeSet<Long> keptMismatches = new TreeSet<>();
+
+    void record(Source source, long id, boolean matched) {
+      checked[source.ordinal()]++;
+      if (!matched) {
+        mismatches[source.ordinal()]++;
+        keep(id);
+      }
+    }
+
+    /** Compares {@code categoryScores}, from the candidate, with the reference on {@code board}. */
+    void recordCategories(Board board, int[] categoryScores) {
+      categoriesChecked++;
+      for (Category category : Category.values()) {
+        if (categoryScores[category.ordinal()] != category.reference.applyAsInt(board)) {
+          categoryMismatches[category.ordinal()]++;
+        }
+      }
+    }
+
+    private void keep(long id) {
+      keptMismatches.add(id);
+      if (keptMismatches.size() > MAX_KEPT_MISMATCHES) {
+        keptMismatches.pollLast();
+      }
+    }
+
+    Report merge(Report other) {
+      for (int i = 0; i < checked.length; i++) {
+        checked[i] += other.checked[i];
+        mismatches[i] += other.mismatches[i];
+      }
+      categoriesChecked += other.categoriesChecked;
+      for (int i = 0; i < categoryMismatches.length; i++) {
+        categoryMismatches[i] += other.categoryMismatches[i];
+      }
+      other.keptMismatches.forEach(this::keep);
+      return this;
+    }
+
+    long getChecked() {
+      return Arrays.stream(checked).sum();
+    }
+
+    long getMismatches() {
+      return Arrays.stream(mismatches).sum();
+    }
+
+    long getMismatches(Source source) {
+      return mismatches[source.ordinal()];
+    }
+
+    long getCategoriesChecked() {
+      return categoriesChecked;
+    }
+
+    /** The boards on which the candidate's score for {@code category} was wrong. */
+    long getMismatches(Category category) {
+      return categoryMismatches[category.ordinal()];
+    }
+
+    /** Up to {@link #MAX_KEPT_MISMATCHES} mismatching ids, smallest first. */
+    long[] getKeptMismatches() {
+      return keptMismatches.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder(String.format("%d boards checked, %d mismatches",
+          getChecked(), getMismatches()));
+      for (Source source : Source.values()) {
+        builder.append(String.format("%n%-13s %12d checked %8d mismatches", source,
+            checked[source.ordinal()], mismatches[source.ordinal()]));
+      }
+      if (categoriesChecked > 0) {
+        for (Category category : Category.values()) {
+          builder.append(String.format("%n%-13s %12d checked %8d mismatches", category,
+              categoriesChecked, categoryMismatches[category.ordinal()]));
+        }
+      }
+      return builder.toString();
+    }
+  }
+
+  public static void main(String[] args) {
+    boolean soak = args.length > 0 && args[0].equals("soak");
+    String engine = args.length > 1 ? args[1] : "packed";
+    ScoringCandidate candidate = engine.equals("grid") ? ScoringCandidate.grid()
+        : engine.equals("rows") ? ScoringCandidate.rows() : ScoringCandidate.packed();
+    long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+    double hours = args.length > 3 ? Double.parseDouble(args[3]) : 8;
+    ScoringOracle oracle = new ScoringOracle(candidate, seed);
+
+    long start = System.nanoTime();
+    Report report;
+    if (soak) {
+      long deadline = start + (long) (hours * 3600e9);
+      report = new Report();
+      for (long round = 0; report.getMismatches() == 0 && System.nanoTime() < deadline; round++) {
+        report.merge(oracle.check(round * SOAK_ROUND_BATCHES, SOAK_ROUND_BATCHES));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.println(String.format("%d boards in %.0fs (%.0f boards/s), %d mismatches",
+            report.getChecked(), seconds, report.getChecked() / seconds, report.getMismatches()));
+      }
+    } else {
+      report = oracle.check(0, CI_BATCHES);
+    }
+    System.err.println(String.format("Candidate %s, seed %d: %s", candidate, seed, report));
+    for (long id : report.getKeptMismatches()) {
+      System.err.println(String.format("%nMismatch on board %d, shrunk to:%n%s", id,
+          oracle.describe(oracle.shrink(id))));
+    }
+    System.exit(report.getMismatches() == 0 ? 0 : 1);
+  }
+}
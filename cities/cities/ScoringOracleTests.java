@@ -0,0 +1,110 @@
+package cities;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+import cities.ScoringOracle.Category;
+import cities.ScoringOracle.Report;
+import cities.ScoringOracle.Source;
+
+public class ScoringOracleTests {
+
+  /** {@link PackedBoardScorer} without the office bonus for an adjacent tavern. */
+  private static final ScoringCandidate NO_OFFICE_BONUS = new ScoringCandidate() {
+    @Override
+    public int score(long id) {
+      return Arrays.stream(categoryScores(id)).sum();
+    }
+
+    @Override
+    public int[] categoryScores(long id) {
+      int[] scores = PackedBoardScorer.scoreCategories(id);
+      int[] types = new int[BoardShape.STANDARD.cells];
+      BoardShape.STANDARD.decode(id, types);
+      int offices = (int) Arrays.stream(types).filter(type -> type == PackedBoardScorer.OFFICE)
+          .count();
+      scores[ScoringOracle.Category.OFFICES.ordinal()] =
+          PackedBoardScorer.scoreOfficeCount(offices);
+      return scores;
+    }
+
+    @Override
+    public String toString() {
+      return "broken";
+    }
+  };
+
+  @Test
+  public void scorersMatchReference() {
+    for (ScoringCandidate candidate : Arrays.asList(ScoringCandidate.packed(),
+        ScoringCandidate.grid(), ScoringCandidate.rows())) {
+      Report report = new ScoringOracle(candidate, 1).check(0, 4);
+      assertThat(report.getChecked()).isEqualTo(4L * ScoringOracle.BATCH_BOARDS);
+      assertThat(report.getMismatches()).isEqualTo(0L);
+      for (Category category : Category.values()) {
+        assertThat(report.getMismatches(category)).isEqualTo(0L);
+      }
+    }
+  }
+
+  @Test
+  public void brokenCandidateShrinksToMinimalBoard() {
+    ScoringOracle oracle = new ScoringOracle(NO_OFFICE_BONUS, 2);
+    Report report = oracle.check(0, 2);
+    assertThat(report.getMismatches(Source.TAVERN_MIXES)).isGreaterThan(0L);
+    assertThat(report.getCategoriesChecked()).isEqualTo(report.getChecked());
+    for (Category category : Category.values()) {
+      assertThat(report.getMismatches(category))
+          .isEqualTo(category == Category.OFFICES ? report.getMismatches() : 0L);
+    }
+    assertThat(report.toString()).contains(String.format("OFFICES               2048 checked %8d "
+        + "mismatches", report.getMismatches()));
+    long shrunk = oracle.shrink(report.getKeptMismatches()[0]);
+    assertThat(oracle.matches(shrunk)).isFalse();
+
+    // One office next to one tavern of the lowest kind; everything else is a house.
+    int[] types = new int[BoardShape.STANDARD.cells];
+    BoardShape.STANDARD.decode(shrunk, types);
+    Arrays.sort(types);
+    int[] expected = new int[BoardShape.STANDARD.cells];
+    Arrays.fill(expected, PackedBoardScorer.HOUSE);
+    expected[14] = PackedBoardScorer.OFFICE;
+    expected[15] = PackedBoardScorer.FIRST_TAVERN;
+    assertThat(types).isEqualTo(expected);
+    assertThat(BoardShape.factoryRanking(shrunk)).isEqualTo(1);
+    assertThat(oracle.describe(shrunk)).contains("OFFICES            2         1  <--");
+  }
+
+  @Test
+  public void reportsDoNotDependOnBatching() {
+    ScoringOracle oracle = new ScoringOracle(NO_OFFICE_BONUS, 3);
+    Report whole = oracle.check(0, 6);
+    Report parts = oracle.check(0, 1).merge(oracle.check(1, 5));
+    assertThat(parts.getMismatches()).isEqualTo(whole.getMismatches());
+    assertThat(parts.getKeptMismatches()).isEqualTo(whole.getKeptMismatches());
+    assertThat(whole.getKeptMismatches()).hasLength(ScoringOracle.MAX_KEPT_MISMATCHES);
+  }
+
+  @Test
+  public void sourcesBuildTheirLayouts() {
+    SplittableRandom random = new SplittableRandom(4);
+    int[] types = new int[BoardShape.STANDARD.cells];
+    for (int i = 0; i < 100; i++) {
+      Source.SHOP_CROSSES.fill(types, random);
+      assertThat(Arrays.stream(types).filter(type -> type == PackedBoardScorer.SHOP).count())
+          .isGreaterThan(0L);
+
+      Source.PARK_REGIONS.fill(types, random);
+      Board board = BoardGenerator.generateBoard(BoardShape.STANDARD, types, 1);
+      assertThat(Collections.max(board.getParkGroupSizes())).isAtLeast(4);
+
+      Source.FEW_TYPES.fill(types, random);
+      assertThat(Arrays.stream(types).distinct().count()).isAtMost(2L);
+    }
+  }
+}
@@ -0,0 +1,318 @@
+package cities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.base.Preconditions;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import cities.ScoringOracle.Category;
+
+/**
+ * Scores boards over HTTP for other tools on the same machine. The server binds to the loopback
+ * address only.
+ * <p>
+ * A board is given either as {@code board=<id>} or as {@code tiles=<digits>&ranking=<1-3>}, where
+ * the 16 digits are the {@link Tile.Type} ordinals of the cells in row-major order, the same digits
+ * a board id holds in base 9. The ranking defaults to 1.
+ * <ul>
+ * <li>{@code GET /score?<board>} returns one JSON object with the board id, its factory ranking,
+ * its total and each {@link Category}'s score from the {@code score*} methods of {@link Board}.
+ * <li>{@code POST /batch} takes one board per line, in the same query form, and returns a JSON
+ * array of those objects in the same order; at most {@value #MAX_BATCH_BOARDS} boards, and no
+ * more than may be pending at once.
+ * </ul>
+ * Malformed boards get a 400 and oversized batches a 413; a body is read no further than the
+ * longest a full batch could be.
+ * <p>
+ * Requests are parsed on a fixed pool of {@value #HANDLER_THREADS} handler threads and queued for a
+ * smaller pool of scoring workers, each of which takes every queued request it can, up to
+ * {@value #WORKER_BATCH_BOARDS} boards, and scores them in one pass. At most
+ * {@value #DEFAULT_MAX_PENDING_BOARDS} boards may be queued or in progress; a request that does not
+ * fit is turned away at once with a 503 and a {@code Retry-After} header, so a burst cannot grow
+ * the queue without bound. A request still waiting after {@value #RESPONSE_TIMEOUT_SECONDS}
+ * seconds, or when the server closes, gets a 503 too.
+ * <p>
+ * Usage: {@code ScoringServer [port]}, defaulting to port 8080. The JDK server only disables
+ * Nagle's algorithm when started with {@code -Dsun.net.httpserver.nodelay=true}; without it the
+ * separate writes of headers and body stall on delayed ACKs, adding about 40ms to every response.
+ * {@link #main} sets the property itself, before the first server starts.
+ */
+final class ScoringServer implements Closeable {
+  static final int HANDLER_THREADS = 64;
+  static final int MAX_BATCH_BOARDS = 10_000;
+  static final int WORKER_BATCH_BOARDS = 256;
+  static final int DEFAULT_MAX_PENDING_BOARDS = 50_000;
+  static final int RESPONSE_TIMEOUT_SECONDS = 30;
+  /** Longer than any board line: {@code tiles=<16 digits>&ranking=<digit>} and a CRLF. */
+  private static final int MAX_LINE_BYTES = 40;
+
+  private final HttpServer server;
+  private final ExecutorService handlers;
+  private final ExecutorService workers;
+  private final LinkedBlockingQueue<Job> queue = new LinkedBlockingQueue<>();
+  private final int maxPendingBoards;
+  private final Semaphore pendingBoards;
+
+  /** A server on {@code port}, or on any free port if it is 0. */
+  ScoringServer(int port) throws IOException {
+    this(port, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_PENDING_BOARDS);
+  }
+
+  ScoringServer(int port, int workerThreads, int maxPendingBoards) throws IOException {
+    Preconditions.checkArgument(workerThreads > 0, "Invalid worker count %s", workerThreads);
+    this.maxPendingBoards = maxPendingBoards;
+    pendingBoards = new Semaphore(maxPendingBoards);
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    handlers = Executors.newFixedThreadPool(HANDLER_THREADS);
+    server.setExecutor(handlers);
+    server.createContext("/score", exchange -> handle(exchange, false));
+    server.createContext("/batch", exchange -> handle(exchange, true));
+    workers = Executors.newFixedThreadPool(workerThreads);
+    for (int i = 0; i < workerThreads; i++) {
+      workers.execute(this::work);
+    }
+    server.start();
+  }
+
+  int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Stops accepting requests and waits up to a second for those in progress; requests still queued
+   * after that are answered with a 503.
+   */
+  @Override
+  public void close() {
+    server.stop(1);
+    workers.shutdownNow();
+    for (Job job; (job = queue.poll()) != null;) {
+      job.done.cancel(false);
+    }
+    handlers.shutdown();
+  }
+
+  /** Boards to score for one request, and where the scored JSON objects go. */
+  private static final class Job {
+    final long[] ids;
+    final String[] results;
+    final CompletableFuture<String[]> done = new CompletableFuture<>();
+
+    Job(long[] ids) {
+      this.ids = ids;
+      results = new String[ids.length];
+    }
+  }
+
+  private void handle(HttpExchange exchange, boolean batch) throws IOException {
+    try {
+      String method = exchange.getRequestMethod();
+      if (!method.equals(batch ? "POST" : "GET")) {
+        respond(exchange, 405, "Use " + (batch ? "POST" : "GET") + "\n");
+        return;
+      }
+      int maxBoards = Math.min(MAX_BATCH_BOARDS, maxPendingBoards);
+      long[] ids;
+      try {
+        if (batch) {
+          String body = readBody(exchange.getRequestBody(), maxBoards * MAX_LINE_BYTES);
+          ids = body == null ? null : parseLines(body);
+        } else {
+          ids = new long[] {parseBoard(exchange.getRequestURI().getRawQuery())};
+        }
+      } catch (IllegalArgumentException e) {
+        respond(exchange, 400, e.getMessage() + "\n");
+        return;
+      }
+      if (ids == null || ids.length > maxBoards) {
+        respond(exchange, 413, "At most " + maxBoards + " boards per batch\n");
+        return;
+      }
+      if (!pendingBoards.tryAcquire(ids.length)) {
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        respond(exchange, 503, "Too many boards pending\n");
+        return;
+      }
+      Job job = new Job(ids);
+      queue.add(job);
+      String[] results;
+      try {
+        results = job.done.get(RESPONSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      } catch (TimeoutException | CancellationException e) {
+        respond(exchange, 503, "Not scored in time\n");
+        return;
+      } catch (InterruptedException | ExecutionException e) {
+        respond(exchange, 500, e + "\n");
+        return;
+      }
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      respond(exchange, 200, batch ? "[" + String.join(",\n", results) + "]\n" : results[0] + "\n");
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * The body as text, or null if it is longer than {@code maxBytes}. The rest of a longer body is
+   * skipped without being kept, up to the length of a full batch, so that the client can read the
+   * response; past that the connection is dropped.
+   */
+  private static String readBody(InputStream body, int maxBytes) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    long total = 0;
+    for (int read; (read = body.read(buffer)) > 0;) {
+      total += read;
+      if (total > (long) MAX_BATCH_BOARDS * MAX_LINE_BYTES) {
+        return null;
+      } else if (total <= maxBytes) {
+        bytes.write(buffer, 0, read);
+      }
+    }
+    return total > maxBytes ? null : new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static long[] parseLines(String body) {
+    List<Long> ids = new ArrayList<>();
+    for (String line : body.split("\n")) {
+      if (!line.trim().isEmpty()) {
+        ids.add(parseBoard(line.trim()));
+      }
+    }
+    return ids.stream().mapToLong(Long::longValue).toArray();
+  }
+
+  /** The id of a board given in query form, {@code board=<id>} or {@code tiles=...&ranking=...}. */
+  static long parseBoard(String query) {
+    Preconditions.checkArgument(query != null, "Missing board");
+    String board = null;
+    String tiles = null;
+    String ranking = "1";
+    for (String parameter : query.split("&")) {
+      String[] pair = parameter.split("=", 2);
+      Preconditions.checkArgument(pair.length == 2, "Malformed parameter '%s'", parameter);
+      switch (pair[0]) {
+        case "board":
+          board = pair[1];
+          break;
+        case "tiles":
+          tiles = pair[1];
+          break;
+        case "ranking":
+          ranking = pair[1];
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown parameter '" + pair[0] + "'");
+      }
+    }
+    Preconditions.checkArgument(board == null ^ tiles == null, "Give one of board or tiles");
+    if (board != null) {
+      long id;
+      try {
+        id = Long.parseLong(board);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Malformed board id '" + board + "'");
+      }
+      Preconditions.checkArgument(id >= 0 && id < BoardShape.STANDARD.boardCount(),
+          "No board has id %s", id);
+      return id;
+    }
+    BoardShape shape = BoardShape.STANDARD;
+    Preconditions.checkArgument(tiles.length() == shape.cells, "Expected %s tiles, got '%s'",
+        shape.cells, tiles);
+    int[] types = new int[shape.cells];
+    for (int cell = 0; cell < shape.cells; cell++) {
+      types[cell] = tiles.charAt(cell) - '0';
+      Preconditions.checkArgument(types[cell] >= 0 && types[cell] < BoardShape.TYPES,
+          "Tiles must be type ordinals 0 to %s, got '%s'", BoardShape.TYPES - 1, tiles);
+    }
+    Preconditions.checkArgument(ranking.matches("[123]"), "Ranking must be 1, 2 or 3, got '%s'",
+        ranking);
+    return shape.encode(types, Integer.parseInt(ranking));
+  }
+
+  /** The JSON object for board {@code id}. */
+  static String score(long id) {
+    Board board = BoardGenerator.generateBoardFromLong(id);
+    StringBuilder json = new StringBuilder(String.format("{\"board\":%d,\"ranking\":%d", id,
+        BoardShape.factoryRanking(id)));
+    int total = 0;
+    for (Category category : Category.values()) {
+      int score = category.reference.applyAsInt(board);
+      total += score;
+      json.append(",\"").append(category.name().toLowerCase(Locale.ROOT)).append("\":")
+          .append(score);
+    }
+    return json.append(",\"total\":").append(total).append('}').toString();
+  }
+
+  /** A scoring worker: takes queued jobs in batches until interrupted. */
+  private void work() {
+    List<Job> jobs = new ArrayList<>();
+    try {
+      while (true) {
+        jobs.add(queue.take());
+        int boards = jobs.get(0).ids.length;
+        for (Job next; boards < WORKER_BATCH_BOARDS && (next = queue.poll()) != null;) {
+          jobs.add(next);
+          boards += next.ids.length;
+        }
+        for (Job job : jobs) {
+          try {
+            for (int i = 0; i < job.ids.length; i++) {
+              job.results[i] = score(job.ids[i]);
+            }
+            job.done.complete(job.results);
+          } catch (RuntimeException e) {
+            job.done.completeExceptionally(e);
+          } finally {
+            pendingBoards.release(job.ids.length);
+          }
+        }
+        jobs.clear();
+      }
+    } catch (InterruptedException e) {
+      for (Job job : jobs) {
+        job.done.cancel(false);
+      }
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+    ScoringServer server = new ScoringServer(port);
+    System.err.println("Scoring on http://" + InetAddress.getLoopbackAddress().getHostAddress()
+        + ":" + server.getPort() + "/");
+    // The server's threads keep the JVM running until it is killed.
+    Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+  }
+}
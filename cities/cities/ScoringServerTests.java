@@ -0,0 +1,124 @@
+package cities;
+
+import static com.google.common.truth.Truth.assert_;
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+public class ScoringServerTests {
+  private static final long ID = 1_234_567_890_123L;
+
+  /** The status and body of a request, as "status body". */
+  private static String request(ScoringServer server, String method, String path, String body)
+      throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(
+        "http://127.0.0.1:" + server.getPort() + path).openConnection();
+    connection.setRequestMethod(method);
+    if (body != null) {
+      connection.setDoOutput(true);
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    int status = connection.getResponseCode();
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    try (InputStream in = status == 200 ? connection.getInputStream()
+        : connection.getErrorStream()) {
+      byte[] buffer = new byte[8192];
+      for (int read; (read = in.read(buffer)) > 0;) {
+        response.write(buffer, 0, read);
+      }
+    }
+    return status + " " + new String(response.toByteArray(), StandardCharsets.UTF_8).trim();
+  }
+
+  private static String tiles(long id) {
+    int[] types = new int[BoardShape.STANDARD.cells];
+    BoardShape.STANDARD.decode(id, types);
+    StringBuilder tiles = new StringBuilder();
+    for (int type : types) {
+      tiles.append(type);
+    }
+    return tiles.toString();
+  }
+
+  @Test
+  public void scoresMatchBoard() {
+    Board board = BoardGenerator.generateBoardFromLong(ID);
+    String json = ScoringServer.score(ID);
+    assertThat(json).startsWith("{\"board\":" + ID + ",\"ranking\":" + (ID % 3 + 1) + ",");
+    assertThat(json).contains("\"parks\":" + board.scoreParks() + ",");
+    assertThat(json).contains("\"shops\":" + board.scoreShops() + ",");
+    assertThat(json).endsWith(",\"total\":" + board.getScore() + "}");
+  }
+
+  @Test
+  public void jsonKeysIgnoreTheDefaultLocale() {
+    Locale original = Locale.getDefault();
+    try {
+      Locale.setDefault(new Locale("tr", "TR"));
+      assertThat(ScoringServer.score(ID)).contains("\"factories\":");
+    } finally {
+      Locale.setDefault(original);
+    }
+  }
+
+  @Test
+  public void parsesIdsAndTiles() {
+    assertThat(ScoringServer.parseBoard("board=" + ID)).isEqualTo(ID);
+    int ranking = BoardShape.factoryRanking(ID);
+    assertThat(ScoringServer.parseBoard("tiles=" + tiles(ID) + "&ranking=" + ranking))
+        .isEqualTo(ID);
+    int[] houses = new int[BoardShape.STANDARD.cells];
+    Arrays.fill(houses, PackedBoardScorer.HOUSE);
+    assertThat(ScoringServer.parseBoard("tiles=" + Strings.repeat("1", 16)))
+        .isEqualTo(BoardShape.STANDARD.encode(houses, 1));
+    for (String bad : new String[] {"board=-1", "board=x", "tiles=123", "tiles=" + Strings
+        .repeat("9", 16), "board=1&tiles=" + tiles(1), "ranking=2", "size=3"}) {
+      try {
+        ScoringServer.parseBoard(bad);
+        assert_().fail("Parsed " + bad);
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+  }
+
+  @Test
+  public void servesSingleBoardsAndBatches() throws IOException {
+    try (ScoringServer server = new ScoringServer(0)) {
+      assertThat(request(server, "GET", "/score?board=" + ID, null))
+          .isEqualTo("200 " + ScoringServer.score(ID));
+      assertThat(request(server, "GET", "/score?tiles=" + tiles(ID) + "&ranking="
+          + BoardShape.factoryRanking(ID), null)).isEqualTo("200 " + ScoringServer.score(ID));
+      assertThat(request(server, "POST", "/batch", "board=5\n\nboard=" + ID + "\n"))
+          .isEqualTo("200 [" + ScoringServer.score(5) + ",\n" + ScoringServer.score(ID) + "]");
+    }
+  }
+
+  @Test
+  public void rejectsBadRequests() throws IOException {
+    try (ScoringServer server = new ScoringServer(0, 1, 4)) {
+      assertThat(request(server, "GET", "/score?board=oops", null)).startsWith("400 ");
+      assertThat(request(server, "GET", "/batch", null)).startsWith("405 ");
+      assertThat(request(server, "POST", "/batch",
+          Strings.repeat("board=1\n", ScoringServer.MAX_BATCH_BOARDS + 1))).startsWith("413 ");
+      // More boards than may ever be pending at once could never be scored.
+      assertThat(request(server, "POST", "/batch", Strings.repeat("board=1\n", 5)))
+          .startsWith("413 ");
+      assertThat(request(server, "POST", "/batch", Strings.repeat("board=1\n", 4)))
+          .startsWith("200 ");
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package cities;
+
+import java.util.Arrays;
+
+/**
+ * Totals over a batch of simulated games, kept per seat. Results from different threads are
+ * combined with {@link #merge}; since every field is a sum, the combined totals do not depend on
+ * the order in which games finished.
+ */
+class SimulationResult {
+  /** Player scores at or above this value are counted in the last histogram bucket. */
+  static final int MAX_TRACKED_SCORE = 128;
+
+  private final long[] scoreTotals;
+  private final long[] wins;
+  private final long[] scoreHistogram;
+  private long games;
+
+  SimulationResult(int players) {
+    scoreTotals = new long[players];
+    wins = new long[players];
+    scoreHistogram = new long[MAX_TRACKED_SCORE + 1];
+  }
+
+  /**
+   * Records one finished game. Player {@code i} scores the lower of cities {@code i} and
+   * {@code i + 1}; the winners are the players with the best such score, ties broken by their
+   * other city.
+   */
+  void record(int[] cityScores) {
+    int players = cityScores.length;
+    long best = Long.MIN_VALUE;
+    for (int player = 0; player < players; player++) {
+      int left = cityScores[player];
+      int right = cityScores[(player + 1) % players];
+      int score = Math.min(left, right);
+      scoreTotals[player] += score;
+      scoreHistogram[Math.min(score, MAX_TRACKED_SCORE)]++;
+      best = Math.max(best, rank(score, Math.max(left, right)));
+    }
+    for (int player = 0; player < players; player++) {
+      int left = cityScores[player];
+      int right = cityScores[(player + 1) % players];
+      if (rank(Math.min(left, right), Math.max(left, right)) == best) {
+        wins[player]++;
+      }
+    }
+    games++;
+  }
+
+  private static long rank(int score, int tieBreaker) {
+    return ((long) score << 32) | tieBreaker;
+  }
+
+  SimulationResult merge(SimulationResult other) {
+    for (int i = 0; i < scoreTotals.length; i++) {
+      scoreTotals[i] += other.scoreTotals[i];
+      wins[i] += other.wins[i];
+    }
+    for (int i = 0; i < scoreHistogram.length; i++) {
+      scoreHistogram[i] += other.scoreHistogram[i];
+    }
+    games += other.games;
+    return this;
+  }
+
+  long getGames() {
+    return games;
+  }
+
+  long getWins(int player) {
+    return wins[player];
+  }
+
+  double getAverageScore(int player) {
+    return games == 0 ? 0 : (double) scoreTotals[player] / games;
+  }
+
+  long[] getScoreHistogram() {
+    return scoreHistogram.clone();
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + (int) (games ^ (games >>> 32));
+    result = prime * result + Arrays.hashCode(scoreHistogram);
+    result = prime * result + Arrays.hashCode(scoreTotals);
+    result = prime * result + Arrays.hashCode(wins);
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    SimulationResult other = (SimulationResult) obj;
+    return games == other.games && Arrays.equals(scoreHistogram, other.scoreHistogram)
+        && Arrays.equals(scoreTotals, other.scoreTotals) && Arrays.equals(wins, other.wins);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder(String.format("%d games", games));
+    for (int player = 0; player < scoreTotals.length; player++) {
+      builder.append(String.format("%nPlayer %d: average %.2f, %d wins", player,
+          getAverageScore(player), wins[player]));
+    }
+    return builder.toString();
+  }
+}
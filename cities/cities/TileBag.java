@@ -0,0 +1,67 @@
+package cities;
+
+import java.util.SplittableRandom;
+
+import com.google.common.base.Preconditions;
+
+import cities.Tile.Type;
+
+/**
+ * A bag of building tiles for a simulated game. Tiles are stored as {@link Type} ordinals so the
+ * bag can be refilled and drawn from repeatedly without allocating.
+ */
+class TileBag {
+  /** Tile counts per {@link Type} ordinal: 24 of each building and 6 of each tavern. */
+  static final int[] DEFAULT_COUNTS = {24, 24, 24, 24, 24, 6, 6, 6, 6};
+
+  private final int[] counts;
+  private final byte[] tiles;
+  private int remaining;
+
+  TileBag() {
+    this(DEFAULT_COUNTS);
+  }
+
+  TileBag(int[] counts) {
+    Preconditions.checkArgument(counts.length == Type.values().length,
+        "There must be a count for every tile type!");
+    int total = 0;
+    for (int count : counts) {
+      Preconditions.checkArgument(count >= 0, "Tile counts must not be negative!");
+      total += count;
+    }
+    this.counts = counts.clone();
+    this.tiles = new byte[total];
+    refill();
+  }
+
+  /** Puts every tile back into the bag. */
+  void refill() {
+    int i = 0;
+    for (int type = 0; type < counts.length; type++) {
+      for (int n = 0; n < counts[type]; n++) {
+        tiles[i++] = (byte) type;
+      }
+    }
+    remaining = tiles.length;
+  }
+
+  /** Removes a uniformly chosen tile from the bag and returns its {@link Type} ordinal. */
+  int draw(SplittableRandom random) {
+    Preconditions.checkState(remaining > 0, "The tile bag is empty!");
+    int index = random.nextInt(remaining);
+    byte tile = tiles[index];
+    remaining--;
+    tiles[index] = tiles[remaining];
+    tiles[remaining] = tile;
+    return tile;
+  }
+
+  int remaining() {
+    return remaining;
+  }
+
+  int size() {
+    return tiles.length;
+  }
+}